@@ -0,0 +1,182 @@
+package core;
+
+import tileengine.TERenderer;
+import tileengine.TETile;
+
+import java.awt.GraphicsEnvironment;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Regression check for how much the hot paths allocate. Garbage is what
+ * makes the collector pause and the game hitch, so each path gets a
+ * budget in bytes per operation and the check fails when one goes over.
+ *
+ * Allocation is read from the JVM's per-thread allocation counter
+ * (com.sun.management.ThreadMXBean), before and after running each path
+ * many times on this thread, after a warm up so the JIT has settled.
+ * The numbers are averages: a path that allocates now and then, like a
+ * checkpoint every World.CHECKPOINT_INTERVAL moves, is spread over all
+ * of its operations.
+ *
+ *   move    World.step, which includes Player.movePlayer and one tick
+ *   frame   World.composeFrame, turning the world into tiles to draw
+ *   world   generating a world from a seed nobody has used yet
+ *   draw    TERenderer.renderFrame, only when there is a screen to draw
+ *           on. Most of this is Java2D's own garbage, so by default it is
+ *           only reported; give it a budget to enforce one.
+ *
+ * Usage: java core.AllocationBudget [move bytes] [frame bytes] [world bytes] [draw bytes]
+ * Exits with status 1 if any path is over its budget.
+ */
+
+public class AllocationBudget {
+    public static final long DEFAULT_MOVE_BUDGET = 32;
+    public static final long DEFAULT_FRAME_BUDGET = 16;
+    public static final long DEFAULT_WORLD_BUDGET = 1 << 20;
+    public static final long NO_BUDGET = Long.MAX_VALUE;
+    // seeds for world generation, far from anything else measured so none are shared
+    private static final long FIRST_SEED = 1_000_000;
+    private static final int WARMUP = 20000;
+    private static final int MOVES = 200000;
+    private static final int FRAMES = 2000;
+    private static final int WORLDS = 20;
+
+    /**
+     * Bytes one path allocated per operation, and whether that is in budget.
+     */
+    public static class Result {
+        public final String name;
+        public final double bytesPerOp;
+        public final long budget;
+
+        Result(String name, double bytesPerOp, long budget) {
+            this.name = name;
+            this.bytesPerOp = bytesPerOp;
+            this.budget = budget;
+        }
+
+        public boolean withinBudget() {
+            return bytesPerOp <= budget;
+        }
+    }
+
+    public static void main(String[] args) {
+        long moveBudget = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_MOVE_BUDGET;
+        long frameBudget = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_FRAME_BUDGET;
+        long worldBudget = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_WORLD_BUDGET;
+        long drawBudget = args.length > 3 ? Long.parseLong(args[3]) : NO_BUDGET;
+
+        List<Result> results = new ArrayList<>();
+        results.add(measureMoves(moveBudget));
+        results.add(measureFrames(frameBudget));
+        results.add(measureWorlds(worldBudget));
+        if (!GraphicsEnvironment.isHeadless()) {
+            results.add(measureDraws(drawBudget));
+        } else {
+            System.out.println("No screen, so drawing was not measured");
+        }
+
+        boolean failed = false;
+        for (Result result : results) {
+            System.out.printf("%-6s %12.1f bytes/op  budget %10s  %s%n", result.name, result.bytesPerOp,
+                    result.budget == NO_BUDGET ? "none" : String.valueOf(result.budget),
+                    result.withinBudget() ? "ok" : "OVER");
+            failed |= !result.withinBudget();
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Measures World.step.
+     *
+     * @param budget bytes allowed per move
+     * @return the result
+     */
+
+    public static Result measureMoves(long budget) {
+        World world = new World(42);
+        Random keys = new Random(42);
+        step(world, keys, WARMUP);
+        long before = allocatedBytes();
+        step(world, keys, MOVES);
+        return new Result("move", (double) (allocatedBytes() - before) / MOVES, budget);
+    }
+
+    /**
+     * Measures composing a frame.
+     *
+     * @param budget bytes allowed per frame
+     * @return the result
+     */
+
+    public static Result measureFrames(long budget) {
+        World world = new World(42);
+        TETile[][] frame = new TETile[world.width][world.height];
+        for (int i = 0; i < FRAMES / 4; i++) {
+            world.composeFrame(frame);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < FRAMES; i++) {
+            world.composeFrame(frame);
+        }
+        return new Result("frame", (double) (allocatedBytes() - before) / FRAMES, budget);
+    }
+
+    /**
+     * Measures drawing a composed frame. Opens a window.
+     *
+     * @param budget bytes allowed per frame, NO_BUDGET to only report
+     * @return the result
+     */
+
+    public static Result measureDraws(long budget) {
+        World world = new World(42);
+        TETile[][] frame = new TETile[world.width][world.height];
+        world.composeFrame(frame);
+        TERenderer renderer = new TERenderer();
+        renderer.initialize(world.width, world.height);
+        for (int i = 0; i < FRAMES / 4; i++) {
+            renderer.renderFrame(frame);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < FRAMES; i++) {
+            renderer.renderFrame(frame);
+        }
+        return new Result("draw", (double) (allocatedBytes() - before) / FRAMES, budget);
+    }
+
+    /**
+     * Measures generating worlds. Each seed is new, so the map is really
+     * generated instead of shared from BaseWorlds.
+     *
+     * @param budget bytes allowed per world
+     * @return the result
+     */
+
+    public static Result measureWorlds(long budget) {
+        long seed = FIRST_SEED;
+        for (int i = 0; i < WORLDS / 4; i++) {
+            new World(seed++);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < WORLDS; i++) {
+            new World(seed++);
+        }
+        return new Result("world", (double) (allocatedBytes() - before) / WORLDS, budget);
+    }
+
+    private static void step(World world, Random keys, int moves) {
+        for (int i = 0; i < moves; i++) {
+            world.step("WASD".charAt(keys.nextInt(4)));
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,169 @@
+package core;
+
+import utils.LatencyHistogram;
+
+/**
+ * Saves the game in the background every so often, so a crash or a
+ * closed window loses at most one interval of play.
+ *
+ * The game thread only captures the save (a SaveLoad.Capture, which
+ * copies the world's changing state) along with the input typed since
+ * the last capture, and hands both over. A writer thread of its own
+ * puts the history back together, hashes and encodes the state and
+ * writes it with SaveLoad's write-to-temp-and-rename, so the game loop
+ * never waits on the disk and its share doesn't grow with the game.
+ * If captures arrive faster than they can be written, only the newest
+ * waiting one is kept; the ones it replaces are counted as coalesced.
+ */
+
+public class Autosaver {
+    public static final long DEFAULT_INTERVAL_MILLIS = 30_000;
+
+    private final long intervalNanos;
+    private final Thread writer;
+    // how long capturing takes on the game thread, and writing on the writer thread
+    private final LatencyHistogram captureTimes = new LatencyHistogram();
+    private final LatencyHistogram writeTimes = new LatencyHistogram();
+    private SaveLoad.Capture pending;
+    // input appended since the writer last took a capture, and how much of the history that covers
+    private final StringBuilder newInput = new StringBuilder();
+    private int inputTaken;
+    // the whole history so far, only touched by the writer thread
+    private final StringBuilder history = new StringBuilder();
+    private boolean writing;
+    private boolean closed;
+    private long lastCapture;
+    private int lastMoves = -1;
+    private long written;
+    private long coalesced;
+    private long failed;
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param intervalMillis least time between autosaves
+     * @throws IllegalArgumentException if the interval isn't positive
+     */
+
+    public Autosaver(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("autosave interval must be positive: " + intervalMillis);
+        }
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.lastCapture = System.nanoTime();
+        this.writer = new Thread(this::run, "autosave");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Captures a save if the interval has passed and the world has moved
+     * since the last one. Cheap to call after every move; call it from the
+     * thread that steps the world.
+     *
+     * @param world world to save
+     * @param inputHistory the session's input history, as saveGame takes
+     *     it; only ever appended to, since just the new part is copied
+     * @return true if a save was captured
+     */
+
+    public boolean maybeSave(World world, CharSequence inputHistory) {
+        long now = System.nanoTime();
+        if (now - lastCapture < intervalNanos || world.getMoves() == lastMoves) {
+            return false;
+        }
+        lastCapture = now;
+        lastMoves = world.getMoves();
+        SaveLoad.Capture capture = new SaveLoad.Capture(world);
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            newInput.append(inputHistory, inputTaken, inputHistory.length());
+            inputTaken = inputHistory.length();
+            if (pending != null) {
+                coalesced++;
+            }
+            pending = capture;
+            notifyAll();
+        }
+        captureTimes.recordSince(now);
+        return true;
+    }
+
+    /**
+     * Stops autosaving. Waits for a write in progress to finish, so it
+     * can't land on top of a save made right after, and drops any capture
+     * still waiting.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+
+    public synchronized void close() throws InterruptedException {
+        closed = true;
+        if (pending != null) {
+            pending = null;
+            coalesced++;
+        }
+        notifyAll();
+        while (writing) {
+            wait();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            SaveLoad.Capture capture;
+            synchronized (this) {
+                while (pending == null && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                capture = pending;
+                pending = null;
+                writing = true;
+                history.append(newInput);
+                newInput.setLength(0);
+            }
+            long start = System.nanoTime();
+            capture.inputHistory = history.toString();
+            boolean ok = SaveLoad.write(capture);
+            writeTimes.recordSince(start);
+            synchronized (this) {
+                writing = false;
+                if (ok) {
+                    written++;
+                } else {
+                    failed++;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    public LatencyHistogram getCaptureTimes() {
+        return captureTimes;
+    }
+
+    public LatencyHistogram getWriteTimes() {
+        return writeTimes;
+    }
+
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+}
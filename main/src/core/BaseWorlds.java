@@ -0,0 +1,181 @@
+package core;
+
+import tileengine.TETile;
+import tileengine.Tileset;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers the tile grid each seed generates, so saves can be written
+ * and read as a TileDiff against it without generating the world again.
+ * Every new World registers its own grid, and anything else (loading a
+ * save from an earlier run) uses a grid handed to load, or else
+ * generates the world once and keeps it.
+ *
+ * The same arrays are the shared base of every world's TileGrid, so all
+ * the worlds of a seed hold one copy of the generated map between them.
+ *
+ * Only the most recently used seeds are kept. A world keeps its base
+ * grid after the seed drops out of here; it just isn't shared with
+ * worlds generated later.
+ *
+ * A grid can also be written out with encode and read back with load,
+ * so a new process can use it without generating the world (SaveLoad
+ * keeps the save's one as save.base). Layout (big-endian):
+ *   magic      4 bytes, "TGBW"
+ *   seed       8 bytes
+ *   generator  4 bytes
+ *   cellCount  4 bytes
+ *   tiles      cellCount tile ids, index x * height + y
+ *   crc32      4 bytes over everything before it
+ */
+
+public class BaseWorlds {
+    // a few KB per seed, enough for a server with many players on a handful of seeds
+    private static final int CAPACITY = 64;
+    static final int MAGIC = 0x54474257;
+    // magic, seed, generator and cell count before the tiles, crc32 after them
+    private static final int HEADER_BYTES = 20;
+    private static final int CRC_BYTES = 4;
+    private static final Map<Long, Entry> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    //one seed is almost always only ever seen with one generator, so that's all we keep
+    private static class Entry {
+        final int generator;
+        final byte[] tiles;
+
+        Entry(int generator, byte[] tiles) {
+            this.generator = generator;
+            this.tiles = tiles;
+        }
+    }
+
+    /**
+     * Tile ids of the world generated from seed, index x * height + y.
+     * The returned array is shared, so callers must not change it.
+     *
+     * @param seed world seed
+     * @param generator World generator version the world was made with
+     * @return the generated tile ids
+     */
+
+    public static byte[] tiles(long seed, int generator) {
+        byte[] tiles = cached(seed, generator);
+        if (tiles != null) {
+            return tiles;
+        }
+        // generating registers the grid through remember
+        World world = new World(seed, generator);
+        tiles = cached(seed, generator);
+        return tiles != null ? tiles : world.getTiles().ids();
+    }
+
+    private static byte[] cached(long seed, int generator) {
+        synchronized (CACHE) {
+            Entry entry = CACHE.get(seed);
+            return entry != null && entry.generator == generator ? entry.tiles : null;
+        }
+    }
+
+    //called by World right after generation, before anything has changed
+    static byte[] share(long seed, int generator, byte[] tiles) {
+        synchronized (CACHE) {
+            Entry entry = CACHE.get(seed);
+            // generation is deterministic, the equals check only guards against that ever breaking
+            if (entry != null && entry.generator == generator && Arrays.equals(entry.tiles, tiles)) {
+                return entry.tiles;
+            }
+            CACHE.put(seed, new Entry(generator, tiles));
+            return tiles;
+        }
+    }
+
+    /**
+     * Encodes the grid seed generates, generating it if it isn't known.
+     *
+     * @param seed world seed
+     * @param generator World generator version the world was made with
+     * @return the encoded grid, ready to be written
+     */
+
+    static ByteBuffer encode(long seed, int generator) {
+        byte[] tiles = tiles(seed, generator);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + tiles.length + CRC_BYTES);
+        buf.putInt(MAGIC).putLong(seed).putInt(generator).putInt(tiles.length).put(tiles);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Remembers a grid from encode, unless this process already has one
+     * for the seed. Anything that doesn't check out is ignored, and the
+     * world is generated when it is needed as if there were no file.
+     *
+     * @param buf an encoded grid
+     * @return true if the grid is valid
+     */
+
+    static boolean load(ByteBuffer buf) {
+        int length = buf.remaining() - HEADER_BYTES - CRC_BYTES;
+        if (length < 0 || buf.getInt(buf.position()) != MAGIC
+                || buf.getInt(buf.position() + HEADER_BYTES - 4) != length) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buf.duplicate();
+        body.limit(buf.limit() - CRC_BYTES);
+        crc.update(body);
+        if ((int) crc.getValue() != buf.getInt(buf.limit() - CRC_BYTES)) {
+            return false;
+        }
+        ByteBuffer in = buf.duplicate();
+        in.getInt();
+        long seed = in.getLong();
+        int generator = in.getInt();
+        in.getInt();
+        byte[] tiles = new byte[length];
+        in.get(tiles);
+        for (byte id : tiles) {
+            if (id < 0 || id >= Tileset.count()) {
+                return false;
+            }
+        }
+        synchronized (CACHE) {
+            if (cached(seed, generator) == null) {
+                CACHE.put(seed, new Entry(generator, tiles));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Flattens a tile grid to one id per cell, index x * height + y.
+     *
+     * @param grid tiles to flatten
+     * @return the tile ids
+     */
+
+    public static byte[] idsOf(TETile[][] grid) {
+        int width = grid.length;
+        int height = grid[0].length;
+        byte[] tiles = new byte[width * height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                tiles[x * height + y] = (byte) grid[x][y].id();
+            }
+        }
+        return tiles;
+    }
+}
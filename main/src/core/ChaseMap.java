@@ -0,0 +1,319 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * The ChaseMap class keeps a distance field from the farmer to every
+ * walkable tile, stored in one flat int array (index x * height + y).
+ * Any number of tigers can read it and just walk downhill, so the cost
+ * of chasing does not grow with the number of tigers.
+ *
+ * When the farmer takes a single step the field is repaired instead of
+ * rebuilt. Every distance can grow by at most one (going through the old
+ * tile), so we add one to all of them at once by bumping a shared bias,
+ * then run a BFS out of the new tile that only visits tiles whose
+ * distance actually went down. Tiles behind the farmer are never touched.
+ *
+ * A world with several farmers measures the distance to the nearest one,
+ * and remembers which farmer that is for every tile. The same repair
+ * works there: if no farmer moved more than one step, no distance grew
+ * by more than one, so the bias is bumped and the BFS starts from all
+ * of them. Only jumps, walls changing or farmers joining rebuild.
+ *
+ * Tigers only read the field while a farmer is in sight, so it is built
+ * on the first read and dropped again after RELEASE_AFTER updates with
+ * no reads, instead of every world holding a full-map array for good.
+ * The BFS queue starts small and grows with the widest frontier seen.
+ */
+
+public class ChaseMap {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    // rebuild before the bias gets anywhere near overflowing
+    private static final int MAX_BIAS = 1 << 30;
+    // updates without a read before the field is dropped
+    static final int RELEASE_AFTER = 100;
+    private static final int QUEUE_START = 64;
+
+    private final World world;
+    private final int width;
+    private final int height;
+    // null until something reads the field
+    private int[] dist;
+    // BFS queue used as a ring, index with & (queue.length - 1)
+    private int[] queue;
+    private int head;
+    private int tail;
+    private int unread;
+    private int bias;
+    private int sourceX;
+    private int sourceY;
+    // farmers the field was last built from when there is more than one, as cell indices
+    private int[] sources = new int[0];
+    // which of those sources each tile's distance is to, only allocated once there are several
+    private int[] owner;
+    private boolean dirty;
+
+    /**
+     * Creates an empty distance field for world. It is filled in
+     * the first time a distance is read.
+     *
+     * @param world world to measure walkable tiles in
+     */
+
+    public ChaseMap(World world) {
+        this.world = world;
+        this.width = world.width;
+        this.height = world.height;
+        this.queue = new int[QUEUE_START];
+        this.dirty = true;
+    }
+
+    /**
+     * Moves the source of the field to (x, y). Single steps are repaired
+     * incrementally, anything else (a jump, or walls that changed since
+     * the last update) falls back to a full BFS.
+     *
+     * @param x farmer x-coordinate
+     * @param y farmer y-coordinate
+     */
+
+    public void track(int x, int y) {
+        if (sources.length > 0) {
+            sources = new int[0];
+            owner = null;
+            dirty = true;
+        }
+        if (unused()) {
+            sourceX = x;
+            sourceY = y;
+            return;
+        }
+        if (!dirty && x == sourceX && y == sourceY) {
+            return;
+        }
+        if (dirty || bias >= MAX_BIAS || Math.abs(x - sourceX) + Math.abs(y - sourceY) != 1) {
+            rebuild(x, y);
+            return;
+        }
+
+        bias++;
+        sourceX = x;
+        sourceY = y;
+        dist[index(x, y)] = -bias;
+        relaxFrom(index(x, y));
+    }
+
+    //counts an update without a read and drops the field once nobody has read it for a while
+    private boolean unused() {
+        if (dist != null && ++unread > RELEASE_AFTER) {
+            dist = null;
+            owner = null;
+            dirty = true;
+        }
+        return dist == null;
+    }
+
+    /**
+     * Moves the sources of the field to several farmers at once. Every
+     * tile then holds the distance to the nearest of them. When each
+     * farmer moved at most one step the field is repaired, otherwise it
+     * is rebuilt. A single farmer goes through track.
+     *
+     * @param xs farmer x-coordinates
+     * @param ys farmer y-coordinates
+     * @param count number of farmers
+     */
+
+    public void trackAll(int[] xs, int[] ys, int count) {
+        if (count == 1) {
+            track(xs[0], ys[0]);
+            return;
+        }
+        boolean rebuild = dirty || bias >= MAX_BIAS || sources.length != count;
+        boolean moved = false;
+        if (sources.length != count) {
+            sources = new int[count];
+        }
+        if (unused()) {
+            for (int i = 0; i < count; i++) {
+                sources[i] = index(xs[i], ys[i]);
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            int cell = index(xs[i], ys[i]);
+            if (sources[i] != cell) {
+                moved = true;
+                rebuild |= Math.abs(xs[i] - sources[i] / height) + Math.abs(ys[i] - sources[i] % height) != 1;
+                sources[i] = cell;
+            }
+        }
+        if (rebuild) {
+            rebuildAll();
+        } else if (moved) {
+            repairAll();
+        }
+    }
+
+    /**
+     * Forces a full rebuild on the next update. World calls this when
+     * a tile changes between walkable and blocked.
+     */
+
+    public void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * Number of steps from (x, y) to the farmer.
+     *
+     * @param x x-coordinate to check.
+     * @param y y-coordinate to check.
+     * @return steps to the farmer or UNREACHABLE
+     */
+
+    public int distance(int x, int y) {
+        refresh();
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return UNREACHABLE;
+        }
+        int raw = dist[index(x, y)];
+        return raw == UNREACHABLE ? UNREACHABLE : raw + bias;
+    }
+
+    /**
+     * Which farmer the distance at (x, y) is to: an index into the
+     * arrays last passed to trackAll, and always 0 with one farmer.
+     * Tiles that can't reach any farmer give an arbitrary one.
+     *
+     * @param x x-coordinate to check.
+     * @param y y-coordinate to check.
+     * @return index of the nearest farmer
+     */
+
+    public int nearest(int x, int y) {
+        if (sources.length == 0 || x < 0 || x >= width || y < 0 || y >= height) {
+            return 0;
+        }
+        refresh();
+        return owner[index(x, y)];
+    }
+
+    private void refresh() {
+        unread = 0;
+        if (dist == null) {
+            dist = new int[width * height];
+            dirty = true;
+        }
+        if (dirty && sources.length > 0) {
+            rebuildAll();
+        } else if (dirty) {
+            rebuild(sourceX, sourceY);
+        }
+    }
+
+    private void rebuild(int x, int y) {
+        Arrays.fill(dist, UNREACHABLE);
+        bias = 0;
+        sourceX = x;
+        sourceY = y;
+        dirty = false;
+        dist[index(x, y)] = 0;
+        relaxFrom(index(x, y));
+    }
+
+    private void rebuildAll() {
+        Arrays.fill(dist, UNREACHABLE);
+        if (owner == null) {
+            owner = new int[dist.length];
+        }
+        bias = 0;
+        dirty = false;
+        seedSources();
+    }
+
+    //every farmer moved at most one step, so every distance grows by at most one
+    private void repairAll() {
+        bias++;
+        seedSources();
+    }
+
+    private void seedSources() {
+        head = 0;
+        tail = 0;
+        for (int i = 0; i < sources.length; i++) {
+            int cell = sources[i];
+            if (dist[cell] != -bias) {
+                dist[cell] = -bias;
+                owner[cell] = i;
+                enqueue(cell);
+            }
+        }
+        relaxQueue();
+    }
+
+    //BFS from start that only keeps going through tiles it made closer
+    private void relaxFrom(int start) {
+        head = 0;
+        tail = 0;
+        enqueue(start);
+        relaxQueue();
+    }
+
+    private void relaxQueue() {
+        while (head < tail) {
+            int cell = queue[head++ & (queue.length - 1)];
+            int cx = cell / height;
+            int cy = cell % height;
+            int next = dist[cell] + 1;
+            int from = owner == null ? 0 : owner[cell];
+
+            relax(cx + 1, cy, next, from);
+            relax(cx - 1, cy, next, from);
+            relax(cx, cy + 1, next, from);
+            relax(cx, cy - 1, next, from);
+        }
+    }
+
+    private void relax(int x, int y, int raw, int from) {
+        if (x < 0 || x >= width || y < 0 || y >= height || !world.isWalkable(x, y)) {
+            return;
+        }
+        int cell = index(x, y);
+        if (dist[cell] > raw) {
+            dist[cell] = raw;
+            if (owner != null) {
+                owner[cell] = from;
+            }
+            enqueue(cell);
+        }
+    }
+
+    private void enqueue(int cell) {
+        if (tail - head == queue.length) {
+            // unwrap into a ring twice the size, keeping head and tail valid
+            int[] bigger = new int[queue.length * 2];
+            for (int i = head; i < tail; i++) {
+                bigger[i & (bigger.length - 1)] = queue[i & (queue.length - 1)];
+            }
+            queue = bigger;
+        }
+        queue[tail++ & (queue.length - 1)] = cell;
+    }
+
+    private int index(int x, int y) {
+        return x * height + y;
+    }
+
+    //the queue, plus the field and owners while they are built, see World.heapBytes
+    long heapBytes() {
+        long bytes = World.arrayBytes(queue.length, 4);
+        if (dist != null) {
+            bytes += World.arrayBytes(dist.length, 4);
+        }
+        if (owner != null) {
+            bytes += World.arrayBytes(owner.length, 4);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,161 @@
+package core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A full copy of the changing parts of a world after a given number of
+ * moves: the tile grid, every entity (including the farmer's position),
+ * the farmer's harvest and the pending timed events.
+ *
+ * Loading a save restores the latest checkpoint on top of a freshly
+ * generated world and only replays the moves made after it, so load
+ * time no longer grows with the length of the game.
+ */
+
+public class Checkpoint implements Serializable {
+    // what the class computed to when save.txt held checkpoints, so those saves still read
+    private static final long serialVersionUID = 3905980768720730797L;
+
+    final int moveIndex;
+    final long tick;
+    final int width;
+    final int height;
+    final byte[] tiles;
+    final int harvest;
+
+    final int entityCount;
+    final int[] entityX;
+    final int[] entityY;
+    final byte[] kinds;
+    final byte[] states;
+    final int[] cooldowns;
+    final int[] homes;
+
+    final long[] timerDue;
+    final int[] timerKind;
+    final int[] timerArg;
+
+    private Checkpoint(World world, int moveIndex) {
+        this.moveIndex = moveIndex;
+        this.tick = world.getTick();
+        this.width = world.width;
+        this.height = world.height;
+        this.harvest = world.Farmer.getHarvest();
+
+        this.tiles = world.getTiles().ids();
+
+        Entities entities = world.getEntities();
+        this.entityCount = entities.size();
+        this.entityX = entities.xs();
+        this.entityY = entities.ys();
+        this.kinds = entities.kinds();
+        this.states = entities.states();
+        this.cooldowns = entities.cooldowns();
+        this.homes = entities.homes();
+
+        List<long[]> pending = new ArrayList<>();
+        world.getTimers().forEachPending((due, kind, arg) -> pending.add(new long[]{due, kind, arg}));
+        this.timerDue = new long[pending.size()];
+        this.timerKind = new int[pending.size()];
+        this.timerArg = new int[pending.size()];
+        for (int i = 0; i < pending.size(); i++) {
+            timerDue[i] = pending.get(i)[0];
+            timerKind[i] = (int) pending.get(i)[1];
+            timerArg[i] = (int) pending.get(i)[2];
+        }
+    }
+
+    Checkpoint(int moveIndex, long tick, int width, int height, byte[] tiles, int harvest,
+               int entityCount, int[] entityX, int[] entityY, byte[] kinds, byte[] states,
+               int[] cooldowns, int[] homes, long[] timerDue, int[] timerKind, int[] timerArg) {
+        this.moveIndex = moveIndex;
+        this.tick = tick;
+        this.width = width;
+        this.height = height;
+        this.tiles = tiles;
+        this.harvest = harvest;
+        this.entityCount = entityCount;
+        this.entityX = entityX;
+        this.entityY = entityY;
+        this.kinds = kinds;
+        this.states = states;
+        this.cooldowns = cooldowns;
+        this.homes = homes;
+        this.timerDue = timerDue;
+        this.timerKind = timerKind;
+        this.timerArg = timerArg;
+    }
+
+    /**
+     * Copies the current state of world.
+     *
+     * @param world world to copy
+     * @param moveIndex number of moves applied to world so far
+     * @return the new checkpoint
+     */
+
+    public static Checkpoint capture(World world, int moveIndex) {
+        return new Checkpoint(world, moveIndex);
+    }
+
+    /**
+     * Overwrites world with this checkpoint. The world must have been
+     * generated from the same seed so that its size and rooms match.
+     *
+     * @param world world to restore into
+     * @throws IllegalArgumentException if the world is a different size
+     */
+
+    public void applyTo(World world) {
+        if (world.width != width || world.height != height) {
+            throw new IllegalArgumentException("checkpoint is " + width + "x" + height
+                    + " but world is " + world.width + "x" + world.height);
+        }
+        world.getTiles().load(tiles);
+        world.getEntities().load(entityCount, entityX, entityY, kinds, states, cooldowns, homes);
+
+        TimerWheel timers = world.getTimers();
+        timers.reset(tick);
+        for (int i = 0; i < timerDue.length; i++) {
+            timers.schedule(timerDue[i] - tick, timerKind[i], timerArg[i]);
+        }
+        world.restored(this);
+    }
+
+    public int getMoveIndex() {
+        return moveIndex;
+    }
+
+    /**
+     * The World.stateHash of the world this was captured from, worked
+     * out from the copy, so it can run on a thread other than the one
+     * stepping the world. Like saves, it only covers the first farmer.
+     *
+     * @param seed seed of the world this was captured from
+     * @return the state hash as of moveIndex
+     */
+
+    long stateHash(long seed) {
+        long h = World.mix(seed ^ World.mix(moveIndex));
+        h = World.mix(h ^ tick);
+        h = World.mix(h ^ harvest);
+        // same order as World.stateHash: x outer, y inner, which is cell order
+        for (byte id : tiles) {
+            h = h * 31 + id;
+        }
+        h = World.mix(h ^ Entities.hash(entityCount, entityX, entityY, kinds, states, cooldowns, homes));
+        long timerSum = 0;
+        for (int i = 0; i < timerDue.length; i++) {
+            timerSum += World.timerHash(timerDue[i], timerKind[i], timerArg[i]);
+        }
+        return World.mix(h ^ timerSum);
+    }
+
+    long heapBytes() {
+        return World.arrayBytes(tiles.length, 1) + 4 * World.arrayBytes(entityX.length, 4)
+                + 2 * World.arrayBytes(kinds.length, 1) + World.arrayBytes(timerDue.length, 8)
+                + 2 * World.arrayBytes(timerKind.length, 4);
+    }
+}
@@ -0,0 +1,420 @@
+package core;
+
+import tileengine.TETile;
+import tileengine.Tileset;
+
+import java.util.Arrays;
+
+/**
+ * The Entities class stores every creature in the world (the farmer,
+ * tigers, villagers, animals) as parallel primitive arrays instead of
+ * one object per creature. An entity is just an index into the arrays.
+ *
+ * Entities live on top of the terrain, so they never overwrite tiles.
+ * The grid is only combined with the entity glyphs when a frame is
+ * composed for drawing. A world holds a handful of entities, so finding
+ * the one on a tile scans their positions instead of keeping a second
+ * full-map grid of ids in every world.
+ */
+
+public class Entities {
+    // kinds
+    public static final byte FARMER = 0;
+    public static final byte TIGER = 1;
+    public static final byte VILLAGER = 2;
+    public static final byte ANIMAL = 3;
+
+    // states
+    public static final byte IDLE = 0;
+    public static final byte CHASING = 1;
+    public static final byte WANDERING = 2;
+
+    public static final int NONE = -1;
+    public static final int SIGHT_RADIUS = 8;
+    private static final int WANDER_DELAY = 3;
+    static final int[][] DIRECTIONS = {{0,1}, {1,0}, {0,-1}, {-1,0}};
+
+    private final World world;
+    private final int height;
+    private int[] xs;
+    private int[] ys;
+    private byte[] kinds;
+    private byte[] states;
+    private int[] cooldowns;
+    private int[] homes;
+    private FieldOfView[] sight;
+    private int count;
+
+    /**
+     * Creates an empty entity store sized for world.
+     *
+     * @param world world the entities live in
+     */
+
+    public Entities(World world) {
+        this.world = world;
+        this.height = world.height;
+
+        int capacity = 16;
+        this.xs = new int[capacity];
+        this.ys = new int[capacity];
+        this.kinds = new byte[capacity];
+        this.states = new byte[capacity];
+        this.cooldowns = new int[capacity];
+        this.homes = new int[capacity];
+        this.sight = new FieldOfView[capacity];
+    }
+
+    /**
+     * Adds a new entity at (x, y). Tigers also get a field of view.
+     *
+     * @param kind one of FARMER, TIGER, VILLAGER or ANIMAL
+     * @param x starting x-coordinate
+     * @param y starting y-coordinate
+     * @return id of the new entity
+     * @throws IllegalStateException if the tile is already occupied
+     */
+
+    public int spawn(byte kind, int x, int y) {
+        if (occupant(x, y) != NONE) {
+            throw new IllegalStateException("Tile " + x + ", " + y + " is already occupied.");
+        }
+        if (count == xs.length) {
+            grow();
+        }
+        int id = count++;
+        xs[id] = x;
+        ys[id] = y;
+        kinds[id] = kind;
+        states[id] = IDLE;
+        cooldowns[id] = 0;
+        homes[id] = cell(x, y);
+        if (kind == TIGER) {
+            sight[id] = new FieldOfView(world, SIGHT_RADIUS);
+        }
+        return id;
+    }
+
+    /**
+     * Moves entity id to (x, y) if the tile is walkable and free.
+     *
+     * @param id entity to move
+     * @param x target x-coordinate
+     * @param y target y-coordinate
+     * @return true if the entity moved
+     */
+
+    public boolean move(int id, int x, int y) {
+        if (!world.isWalkable(x, y) || occupant(x, y) != NONE) {
+            return false;
+        }
+        xs[id] = x;
+        ys[id] = y;
+        return true;
+    }
+
+    /**
+     * Sends entity id back to the tile it was spawned on.
+     *
+     * @param id entity to respawn
+     * @return false if something is standing on its home tile
+     */
+
+    public boolean respawn(int id) {
+        int home = homes[id];
+        if (cell(xs[id], ys[id]) == home) {
+            return true;
+        }
+        if (occupant(home / height, home % height) != NONE) {
+            return false;
+        }
+        xs[id] = home / height;
+        ys[id] = home % height;
+        states[id] = IDLE;
+        return true;
+    }
+
+    /**
+     * Runs one tick for every entity. Cooldowns are counted down in one
+     * flat pass, then each entity acts according to its kind.
+     * Farmers are driven by input, not by this pass.
+     *
+     * @param chaseMap shared distance field to the nearest farmer
+     * @param farmers entity ids of every farmer, in slot order
+     * @param seed world seed, mixed with the tick to pick wander directions
+     * @param tick current game tick
+     */
+
+    public void update(ChaseMap chaseMap, int[] farmers, long seed, long tick) {
+        int n = count;
+        int[] cd = cooldowns;
+        for (int i = 0; i < n; i++) {
+            cd[i] = Math.max(0, cd[i] - 1);
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (cd[i] > 0) {
+                continue;
+            }
+            switch (kinds[i]) {
+                case TIGER:
+                    updateTiger(i, chaseMap, farmers);
+                    break;
+                case VILLAGER:
+                case ANIMAL:
+                    wander(i, seed, tick);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    //tigers walk down the chase map, which leads to the nearest farmer, so they only chase while that one is in sight
+    private void updateTiger(int id, ChaseMap chaseMap, int[] farmers) {
+        int x = xs[id];
+        int y = ys[id];
+        int seen = farmers[chaseMap.nearest(x, y)];
+        if (!sight[id].canSee(x, y, xs[seen], ys[seen])) {
+            states[id] = IDLE;
+            return;
+        }
+        if (states[id] != CHASING) {
+            world.getEvents().publish(GameEvent.DETECTED, id, xs[seen], ys[seen], 0, world.getTick());
+        }
+        states[id] = CHASING;
+
+        int best = chaseMap.distance(x, y);
+        int bestX = x;
+        int bestY = y;
+        for (int[] dir : DIRECTIONS) {
+            int nx = x + dir[0];
+            int ny = y + dir[1];
+            int d = chaseMap.distance(nx, ny);
+            if (d < best && occupant(nx, ny) == NONE) {
+                best = d;
+                bestX = nx;
+                bestY = ny;
+            }
+        }
+        if (bestX != x || bestY != y) {
+            move(id, bestX, bestY);
+        }
+    }
+
+    //direction is a hash of seed, tick and id so there is no random state to save
+    private void wander(int id, long seed, long tick) {
+        long z = seed + tick * 0x9E3779B97F4A7C15L + id * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        int[] dir = DIRECTIONS[(int) (z & 3)];
+        states[id] = WANDERING;
+        move(id, xs[id] + dir[0], ys[id] + dir[1]);
+        cooldowns[id] = WANDER_DELAY;
+    }
+
+    /**
+     * Line of sight check from entity id to (x, y).
+     * Only tigers have sight; everything else sees nothing.
+     *
+     * @param id entity looking
+     * @param x x-coordinate to look at
+     * @param y y-coordinate to look at
+     * @return true if the tile is visible to the entity
+     */
+
+    public boolean canSee(int id, int x, int y) {
+        return sight[id] != null && sight[id].canSee(xs[id], ys[id], x, y);
+    }
+
+    //called by world whenever a tile changes between see-through and opaque
+    void tileChanged(int x, int y) {
+        for (int i = 0; i < count; i++) {
+            if (sight[i] != null) {
+                sight[i].tileChanged(x, y);
+            }
+        }
+    }
+
+    /**
+     * Copies terrain into frame and draws every entity on top of it.
+     *
+     * @param terrain world tiles without any entities
+     * @param frame array of the same size to draw into
+     */
+
+    public void compose(TileGrid terrain, TETile[][] frame) {
+        terrain.copyInto(frame);
+        for (int i = 0; i < count; i++) {
+            frame[xs[i]][ys[i]] = glyph(kinds[i]);
+        }
+    }
+
+    /**
+     * Same as compose, but draws entities as tile ids.
+     *
+     * @param frame terrain tile ids, index x * height + y, to draw into
+     */
+
+    public void composeIds(byte[] frame) {
+        for (int i = 0; i < count; i++) {
+            frame[xs[i] * height + ys[i]] = (byte) glyph(kinds[i]).id();
+        }
+    }
+
+    public static TETile glyph(byte kind) {
+        switch (kind) {
+            case FARMER:
+                return Tileset.AVATAR;
+            case TIGER:
+                return Tileset.TIGER;
+            case VILLAGER:
+                return Tileset.VILLAGER;
+            default:
+                return Tileset.ANIMAL;
+        }
+    }
+
+    /**
+     * Entity standing on (x, y).
+     *
+     * @param x x-coordinate to check.
+     * @param y y-coordinate to check.
+     * @return entity id or NONE if empty or off the map
+     */
+
+    public int occupant(int x, int y) {
+        if (x < 0 || x >= world.width || y < 0 || y >= height) {
+            return NONE;
+        }
+        for (int i = 0; i < count; i++) {
+            if (xs[i] == x && ys[i] == y) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    public int x(int id) {
+        return xs[id];
+    }
+
+    public int y(int id) {
+        return ys[id];
+    }
+
+    public byte kind(int id) {
+        return kinds[id];
+    }
+
+    public byte state(int id) {
+        return states[id];
+    }
+
+    public int cooldown(int id) {
+        return cooldowns[id];
+    }
+
+    public int home(int id) {
+        return homes[id];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    //folds every column together, used by World.stateHash
+    long hash() {
+        return hash(count, xs, ys, kinds, states, cooldowns, homes);
+    }
+
+    //the same over columns copied out, used by Checkpoint.stateHash
+    static long hash(int count, int[] xs, int[] ys, byte[] kinds, byte[] states, int[] cooldowns, int[] homes) {
+        long h = count;
+        for (int i = 0; i < count; i++) {
+            h = h * 31 + xs[i];
+            h = h * 31 + ys[i];
+            h = h * 31 + kinds[i];
+            h = h * 31 + states[i];
+            h = h * 31 + cooldowns[i];
+            h = h * 31 + homes[i];
+        }
+        return h;
+    }
+
+    /**
+     * Replaces every entity with the given columns, as saved in a
+     * checkpoint. Sight caches start out empty.
+     */
+
+    void load(int n, int[] x, int[] y, byte[] kind, byte[] state, int[] cooldown, int[] home) {
+        while (xs.length < n) {
+            grow();
+        }
+        Arrays.fill(sight, null);
+        count = n;
+        for (int i = 0; i < n; i++) {
+            xs[i] = x[i];
+            ys[i] = y[i];
+            kinds[i] = kind[i];
+            states[i] = state[i];
+            cooldowns[i] = cooldown[i];
+            homes[i] = home[i];
+            if (kinds[i] == TIGER) {
+                sight[i] = new FieldOfView(world, SIGHT_RADIUS);
+            }
+        }
+    }
+
+    int[] xs() {
+        return Arrays.copyOf(xs, count);
+    }
+
+    int[] ys() {
+        return Arrays.copyOf(ys, count);
+    }
+
+    byte[] kinds() {
+        return Arrays.copyOf(kinds, count);
+    }
+
+    byte[] states() {
+        return Arrays.copyOf(states, count);
+    }
+
+    int[] cooldowns() {
+        return Arrays.copyOf(cooldowns, count);
+    }
+
+    int[] homes() {
+        return Arrays.copyOf(homes, count);
+    }
+
+    private void grow() {
+        int capacity = xs.length * 2;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        states = Arrays.copyOf(states, capacity);
+        cooldowns = Arrays.copyOf(cooldowns, capacity);
+        homes = Arrays.copyOf(homes, capacity);
+        sight = Arrays.copyOf(sight, capacity);
+    }
+
+    private int cell(int x, int y) {
+        return x * height + y;
+    }
+
+    //the columns and every tiger's sight cache, see World.heapBytes
+    long heapBytes() {
+        long bytes = 4 * World.arrayBytes(xs.length, 4) + 2 * World.arrayBytes(xs.length, 1)
+                + World.arrayBytes(sight.length, 4);
+        for (int i = 0; i < count; i++) {
+            if (sight[i] != null) {
+                bytes += sight[i].heapBytes();
+            }
+        }
+        return bytes;
+    }
+}
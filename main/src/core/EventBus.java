@@ -0,0 +1,232 @@
+package core;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer, multi-consumer ring buffer of game events.
+ * The game thread is the only publisher; it fills a preallocated slot
+ * and then moves the published cursor forward, so publishing never
+ * allocates or takes a lock.
+ *
+ * Each subscriber keeps its own read sequence. Fast subscribers (the
+ * HUD) can be drained on the game thread with poll, slow ones (disk
+ * writers) get their own thread with start. The producer only waits
+ * if a subscriber falls a whole ring behind, and then it parks rather
+ * than spins: it wakes the subscriber's thread and gives it the CPU.
+ * A subscriber that makes no progress at all for LAG_LIMIT_NANOS is
+ * dropped, so one that stopped polling can't freeze the game loop;
+ * its owner finds out through isDropped.
+ */
+
+public class EventBus {
+    // a step publishes a handful of events, the game thread drains its subscribers after every
+    // step and threaded ones wake every millisecond, so this is many steps of slack
+    public static final int DEFAULT_CAPACITY = 64;
+    // how long a subscriber may make no progress while the producer waits on it
+    static final long LAG_LIMIT_NANOS = 250_000_000L;
+    private static final long WAIT_NANOS = 50_000L;
+
+    /**
+     * Receives events in the order they were published.
+     */
+    public interface Listener {
+        void onEvent(GameEvent event);
+    }
+
+    private final GameEvent[] ring;
+    private final int mask;
+    private final AtomicLong cursor;
+    private final CopyOnWriteArrayList<Subscriber> subscribers;
+    private long next;
+    private long gate;
+
+    public EventBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a bus with every slot allocated up front.
+     *
+     * @param capacity number of slots, rounded up to a power of two
+     */
+
+    public EventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new GameEvent[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new GameEvent();
+        }
+        this.mask = size - 1;
+        this.cursor = new AtomicLong(-1);
+        this.subscribers = new CopyOnWriteArrayList<>();
+        this.next = 0;
+        this.gate = -1;
+    }
+
+    /**
+     * Publishes an event. Must only be called from the game thread.
+     *
+     * @param type one of the GameEvent types
+     * @param entity entity the event is about
+     * @param x x-coordinate of the event
+     * @param y y-coordinate of the event
+     * @param value extra payload (see GameEvent.value)
+     * @param tick game tick the event happened on
+     */
+
+    public void publish(int type, int entity, int x, int y, int value, long tick) {
+        long seq = next++;
+        // only rescan the subscribers when we might be about to lap one
+        long wrap = seq - ring.length;
+        if (wrap > gate) {
+            gate = slowestSequence(seq - 1);
+            if (wrap > gate) {
+                awaitRoom(wrap, seq - 1);
+            }
+        }
+
+        GameEvent slot = ring[(int) (seq & mask)];
+        slot.type = type;
+        slot.entity = entity;
+        slot.x = x;
+        slot.y = y;
+        slot.value = value;
+        slot.tick = tick;
+        cursor.lazySet(seq);
+    }
+
+    /**
+     * Adds a subscriber that sees every event published from now on.
+     *
+     * @param listener callback for each event
+     * @return the subscriber, to poll or start
+     */
+
+    public Subscriber subscribe(Listener listener) {
+        Subscriber subscriber = new Subscriber(listener, cursor.get());
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    //parks until every subscriber is past wrap, dropping any that stop moving for LAG_LIMIT_NANOS
+    private void awaitRoom(long wrap, long fallback) {
+        long progress = gate;
+        long since = System.nanoTime();
+        while (wrap > gate) {
+            for (Subscriber s : subscribers) {
+                if (s.sequence.get() < wrap && s.thread != null) {
+                    LockSupport.unpark(s.thread);
+                }
+            }
+            LockSupport.parkNanos(WAIT_NANOS);
+            gate = slowestSequence(fallback);
+            if (gate != progress) {
+                progress = gate;
+                since = System.nanoTime();
+            } else if (System.nanoTime() - since >= LAG_LIMIT_NANOS) {
+                for (Subscriber s : subscribers) {
+                    if (s.sequence.get() < wrap) {
+                        s.dropped = true;
+                        subscribers.remove(s);
+                    }
+                }
+                gate = slowestSequence(fallback);
+            }
+        }
+    }
+
+    private long slowestSequence(long fallback) {
+        long min = fallback;
+        for (Subscriber s : subscribers) {
+            min = Math.min(min, s.sequence.get());
+        }
+        return min;
+    }
+
+    /**
+     * One consumer's position in the ring.
+     */
+    public class Subscriber {
+        private final Listener listener;
+        private final AtomicLong sequence;
+        private volatile boolean running;
+        private volatile boolean dropped;
+        private volatile Thread thread;
+
+        private Subscriber(Listener listener, long start) {
+            this.listener = listener;
+            this.sequence = new AtomicLong(start);
+        }
+
+        /**
+         * Hands every event published since the last poll to the listener.
+         * Does nothing once the subscriber has been dropped, as the events
+         * it missed have been overwritten.
+         *
+         * @return number of events handled
+         */
+
+        public int poll() {
+            if (dropped) {
+                return 0;
+            }
+            long seen = sequence.get();
+            long available = cursor.get();
+            for (long s = seen + 1; s <= available; s++) {
+                listener.onEvent(ring[(int) (s & mask)]);
+            }
+            sequence.lazySet(available);
+            return (int) (available - seen);
+        }
+
+        /**
+         * Runs this subscriber on its own daemon thread so a slow
+         * listener never holds up the game loop.
+         *
+         * @param name thread name
+         * @return the started thread
+         */
+
+        public Thread start(String name) {
+            running = true;
+            thread = new Thread(() -> {
+                while (running && !dropped) {
+                    if (poll() == 0) {
+                        LockSupport.parkNanos(1_000_000L);
+                    }
+                }
+                poll();
+            }, name);
+            thread.setDaemon(true);
+            thread.start();
+            return thread;
+        }
+
+        public void stop() {
+            running = false;
+        }
+
+        /**
+         * Whether the producer gave up on this subscriber for falling a
+         * whole ring behind and not catching up. A dropped subscriber
+         * sees no more events.
+         *
+         * @return true if dropped
+         */
+
+        public boolean isDropped() {
+            return dropped;
+        }
+    }
+
+    //every slot is allocated up front: an object header, five ints and a long each
+    long heapBytes() {
+        return World.arrayBytes(ring.length, 4) + ring.length * ((World.OBJECT_BYTES + 5 * 4 + 8 + 7) & ~7L);
+    }
+}
@@ -0,0 +1,150 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * The FieldOfView class computes which tiles can be seen from a point
+ * using recursive shadowcasting. The grid is split into 8 octants and
+ * each octant is scanned row by row, with walls casting shadows that
+ * narrow the slopes later rows are allowed to light.
+ *
+ * Results are cached for the last origin. The cache is only thrown away
+ * when the origin moves or when a tile inside the radius changes
+ * opacity, so looking up a tile is a single array read.
+ */
+
+public class FieldOfView {
+    // xx, xy, yx, yy multipliers that map octant 0 onto the other 7
+    private static final int[][] OCTANTS = {
+        {1, 0, 0, 1}, {0, 1, 1, 0}, {0, -1, 1, 0}, {-1, 0, 0, 1},
+        {-1, 0, 0, -1}, {0, -1, -1, 0}, {0, 1, -1, 0}, {1, 0, 0, -1}
+    };
+
+    private final World world;
+    private final int radius;
+    private final int span;
+    private final boolean[] visible;
+    private int originX;
+    private int originY;
+    private boolean valid;
+
+    /**
+     * Creates an empty field of view. Nothing is computed until
+     * the first lookup.
+     *
+     * @param world world whose opacity is used to cast shadows
+     * @param radius how many tiles away can still be seen
+     */
+
+    public FieldOfView(World world, int radius) {
+        this.world = world;
+        this.radius = radius;
+        this.span = 2 * radius + 1;
+        this.visible = new boolean[span * span];
+        this.valid = false;
+    }
+
+    /**
+     * Checks whether (x, y) can be seen from (fromX, fromY).
+     * Recomputes only if the origin moved or the cache was invalidated.
+     *
+     * @param fromX x-coordinate of the viewer
+     * @param fromY y-coordinate of the viewer
+     * @param x x-coordinate to look at
+     * @param y y-coordinate to look at
+     * @return true if the tile is lit
+     */
+
+    public boolean canSee(int fromX, int fromY, int x, int y) {
+        if (!valid || fromX != originX || fromY != originY) {
+            compute(fromX, fromY);
+        }
+        int rx = x - originX + radius;
+        int ry = y - originY + radius;
+        if (rx < 0 || rx >= span || ry < 0 || ry >= span) {
+            return false;
+        }
+        return visible[rx * span + ry];
+    }
+
+    /**
+     * Throws away the cache if (x, y) is close enough to matter.
+     * Called by World when a tile switches between opaque and clear.
+     *
+     * @param x x-coordinate of the changed tile
+     * @param y y-coordinate of the changed tile
+     */
+
+    public void tileChanged(int x, int y) {
+        if (valid && Math.abs(x - originX) <= radius && Math.abs(y - originY) <= radius) {
+            valid = false;
+        }
+    }
+
+    private void compute(int x, int y) {
+        originX = x;
+        originY = y;
+        Arrays.fill(visible, false);
+        visible[radius * span + radius] = true;
+
+        for (int[] oct : OCTANTS) {
+            castLight(1, 1.0, 0.0, oct[0], oct[1], oct[2], oct[3]);
+        }
+        valid = true;
+    }
+
+    //scans one octant starting at row, lighting tiles between the start and end slopes
+    private void castLight(int row, double start, double end, int xx, int xy, int yx, int yy) {
+        if (start < end) {
+            return;
+        }
+        int radiusSq = radius * radius;
+        double newStart = 0.0;
+
+        for (int j = row; j <= radius; j++) {
+            int dy = -j;
+            boolean blocked = false;
+
+            for (int dx = -j; dx <= 0; dx++) {
+                double leftSlope = (dx - 0.5) / (dy + 0.5);
+                double rightSlope = (dx + 0.5) / (dy - 0.5);
+                if (start < rightSlope) {
+                    continue;
+                } else if (end > leftSlope) {
+                    break;
+                }
+
+                int relX = dx * xx + dy * xy;
+                int relY = dx * yx + dy * yy;
+                if (dx * dx + dy * dy <= radiusSq) {
+                    visible[(relX + radius) * span + (relY + radius)] = true;
+                }
+
+                boolean opaque = world.isOpaque(originX + relX, originY + relY);
+                if (blocked) {
+                    if (opaque) {
+                        newStart = rightSlope;
+                    } else {
+                        blocked = false;
+                        start = newStart;
+                    }
+                } else if (opaque && j < radius) {
+                    blocked = true;
+                    castLight(j + 1, start, leftSlope, xx, xy, yx, yy);
+                    newStart = rightSlope;
+                }
+            }
+            if (blocked) {
+                break;
+            }
+        }
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    long heapBytes() {
+        return World.OBJECT_BYTES + World.arrayBytes(visible.length, 1);
+    }
+}
@@ -0,0 +1,208 @@
+package core;
+
+import com.sun.net.httpserver.HttpServer;
+import utils.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Timings of the desktop game's frame loop, each kept in a
+ * LatencyHistogram, and counts of the world's events by type. Main
+ * records the timings on the game thread and the counts from an
+ * EventBus subscriber; the debug overlay and the metrics endpoint read
+ * them from wherever.
+ *
+ * The endpoint is a JDK HttpServer on the loopback interface, only
+ * started when asked for (see serve). GET
+ * /metrics returns one summary line per timing, in microseconds:
+ *   name count mean p50 p90 p99 p999 max
+ * after a header line, then one "events type count type count ..." line,
+ * one "counts name value name value ..." line if any counts were added,
+ * followed by one "bucket name upper count" line
+ * per non-empty bucket, with upper in nanoseconds, so histograms from
+ * several runs can be added up.
+ */
+
+public class FrameMetrics {
+    // drawing the tiles, TERenderer.renderFrame
+    public final LatencyHistogram render = new LatencyHistogram();
+    public final LatencyHistogram hud = new LatencyHistogram();
+    // pushing the finished frame to the screen, StdDraw.show
+    public final LatencyHistogram show = new LatencyHistogram();
+    // Player.movePlayer, recorded by World.step
+    public final LatencyHistogram move = new LatencyHistogram();
+    // from a key being taken off StdDraw's queue to the frame it caused being shown
+    public final LatencyHistogram input = new LatencyHistogram();
+
+    // every timing by name in report order, the five above first; others can be added later
+    private final Map<String, LatencyHistogram> all = new LinkedHashMap<>();
+    // published events by GameEvent type
+    private final AtomicLongArray events = new AtomicLongArray(GameEvent.TYPES);
+    // counters kept somewhere else, by name in report order
+    private final Map<String, LongSupplier> counters = new LinkedHashMap<>();
+    private HttpServer server;
+
+    public FrameMetrics() {
+        all.put("render", render);
+        all.put("hud", hud);
+        all.put("show", show);
+        all.put("move", move);
+        all.put("input", input);
+    }
+
+    /**
+     * Adds a timing recorded somewhere else to the overlay and the endpoint.
+     *
+     * @param name name to report it under, without spaces
+     * @param histogram the timing
+     * @throws IllegalArgumentException if the name is taken
+     */
+
+    public synchronized void add(String name, LatencyHistogram histogram) {
+        if (all.containsKey(name)) {
+            throw new IllegalArgumentException("already a timing called " + name);
+        }
+        all.put(name, histogram);
+    }
+
+    /**
+     * Adds a counter kept somewhere else to the overlay and the endpoint.
+     *
+     * @param name name to report it under, without spaces
+     * @param count reads the counter, from whichever thread reports
+     * @throws IllegalArgumentException if the name is taken
+     */
+
+    public synchronized void addCount(String name, LongSupplier count) {
+        if (counters.containsKey(name)) {
+            throw new IllegalArgumentException("already a count called " + name);
+        }
+        counters.put(name, count);
+    }
+
+    /**
+     * Counts one published event. Meant to be an EventBus listener.
+     *
+     * @param event the event
+     */
+
+    public void countEvent(GameEvent event) {
+        events.incrementAndGet(event.type());
+    }
+
+    public long eventCount(int type) {
+        return events.get(type);
+    }
+
+    /**
+     * Starts serving /metrics on the loopback interface.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @return the port being listened on
+     * @throws IOException if the port can't be bound
+     * @throws IllegalStateException if the endpoint is already running
+     */
+
+    public synchronized int serve(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("metrics endpoint already running");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = report(true).getBytes(StandardCharsets.US_ASCII);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=us-ascii");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // the default executor runs requests on the server's own thread, which is plenty here
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * Text form of every timing.
+     *
+     * @param buckets whether to add the bucket lines after the summaries
+     * @return the report, one line per row
+     */
+
+    public synchronized String report(boolean buckets) {
+        StringBuilder out = new StringBuilder();
+        for (String line : summaries()) {
+            out.append(line).append('\n');
+        }
+        if (buckets) {
+            for (Map.Entry<String, LatencyHistogram> timing : all.entrySet()) {
+                for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                    long n = timing.getValue().countAt(i);
+                    if (n > 0) {
+                        out.append("bucket ").append(timing.getKey()).append(' ')
+                                .append(LatencyHistogram.upperBound(i)).append(' ')
+                                .append(n).append('\n');
+                    }
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * A header, one summary line per timing, a line of event counts and
+     * one of the added counts if there are any, as drawn by the overlay.
+     *
+     * @return the lines, in the same order every time
+     */
+
+    public synchronized List<String> summaries() {
+        List<String> lines = new ArrayList<>(all.size() + 3);
+        lines.add("# name count mean p50 p90 p99 p999 max (us)");
+        for (Map.Entry<String, LatencyHistogram> timing : all.entrySet()) {
+            LatencyHistogram histogram = timing.getValue();
+            lines.add(timing.getKey()
+                    + " " + histogram.count()
+                    + " " + micros(Math.round(histogram.mean()))
+                    + " " + micros(histogram.valueAt(0.5))
+                    + " " + micros(histogram.valueAt(0.9))
+                    + " " + micros(histogram.valueAt(0.99))
+                    + " " + micros(histogram.valueAt(0.999))
+                    + " " + micros(histogram.max()));
+        }
+        StringBuilder counts = new StringBuilder("events");
+        for (int type = 0; type < GameEvent.TYPES; type++) {
+            counts.append(' ').append(GameEvent.typeName(type)).append(' ').append(events.get(type));
+        }
+        lines.add(counts.toString());
+        if (!counters.isEmpty()) {
+            StringBuilder others = new StringBuilder("counts");
+            for (Map.Entry<String, LongSupplier> count : counters.entrySet()) {
+                others.append(' ').append(count.getKey()).append(' ').append(count.getValue().getAsLong());
+            }
+            lines.add(others.toString());
+        }
+        return lines;
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+}
@@ -0,0 +1,66 @@
+package core;
+
+/**
+ * A single event slot in the EventBus ring. Slots are allocated once
+ * when the bus is created and overwritten in place on every publish,
+ * so listeners must copy out anything they want to keep.
+ */
+
+public class GameEvent {
+    // event types
+    public static final int INPUT = 0;
+    public static final int MOVE = 1;
+    public static final int HARVEST = 2;
+    public static final int DETECTED = 3;
+    public static final int TYPES = 4;
+    private static final String[] NAMES = {"input", "move", "harvest", "detected"};
+
+    int type;
+    int entity;
+    int x;
+    int y;
+    int value;
+    long tick;
+
+    public int type() {
+        return type;
+    }
+
+    public int entity() {
+        return entity;
+    }
+
+    public int x() {
+        return x;
+    }
+
+    public int y() {
+        return y;
+    }
+
+    /**
+     * Extra payload. For INPUT it is the key, for HARVEST
+     * the farmer's total harvest after the pick.
+     *
+     * @return event value
+     */
+
+    public int value() {
+        return value;
+    }
+
+    public long tick() {
+        return tick;
+    }
+
+    /**
+     * Lowercase name of an event type, for reports.
+     *
+     * @param type one of the type constants
+     * @return the name
+     */
+
+    public static String typeName(int type) {
+        return NAMES[type];
+    }
+}
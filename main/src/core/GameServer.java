@@ -0,0 +1,349 @@
+package core;
+
+import tileengine.Tileset;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.DataOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless server that hosts many games in one JVM. Every connection
+ * gets its own GameSession and its own thread, a virtual thread when
+ * the JVM has them (Java 21+) and a pooled platform thread otherwise.
+ * Sessions live in a SessionManager, which writes idle ones to disk to
+ * stay under its memory budget; a connection's next command brings its
+ * session back.
+ *
+ * A connection without a game of its own can WATCH someone else's. The
+ * game's SpectatorFeed encodes each tick once for all of its watchers.
+ *
+ * The protocol is line based text over a loopback socket. Requests:
+ *   NEW seed       start a game, replies "OK id width height" and a FRAME
+ *   MOVE keys      apply W/A/S/D keys, replies a DELTA and a HUD line
+ *   FRAME          resend the whole frame
+ *   WATCH id       spectate session id, replies "OK id" and from then on
+ *                  only sends binary SpectatorFeed packets, each prefixed
+ *                  with its length as a 4-byte big-endian int. A length
+ *                  of 0 is a heartbeat, sent after WATCH_HEARTBEAT_MILLIS
+ *                  without a packet so a closed socket is noticed
+ *   QUIT           end the session and close the connection
+ * Replies:
+ *   FRAME w h      followed by h lines, top row first, one digit per
+ *                  column: the tile id in base 36, 0-9 then a-z, so ids
+ *                  below 16 read as plain hex
+ *   DELTA n        followed by n lines "x y id" for the cells that changed
+ *   HUD harvest moves tick
+ *   ERR message
+ */
+
+public class GameServer {
+    public static final int DEFAULT_PORT = 7070;
+    // longest MOVE a client may send in one line
+    static final int MAX_KEYS_PER_LINE = 4096;
+    // sessions with no input for this long are passivated even under budget
+    static final long IDLE_MINUTES = 5;
+    // longest a watcher goes without a write while the game is idle
+    static final long WATCH_HEARTBEAT_MILLIS = 5_000;
+    // one per tile id in FRAME rows
+    private static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    private final int port;
+    private final SessionManager sessions;
+    // feeds of the sessions somebody is watching
+    private final Map<Long, SpectatorFeed> feeds = new ConcurrentHashMap<>();
+    private ServerSocket socket;
+    private ExecutorService connections;
+    private ScheduledExecutorService sweeper;
+    private Thread acceptor;
+
+    /**
+     * Creates a server that will listen on the loopback interface, with
+     * half the heap as its session budget.
+     *
+     * @param port port to listen on, 0 for any free port
+     */
+
+    public GameServer(int port) {
+        this(port, new SessionManager(Paths.get("sessions"), Runtime.getRuntime().maxMemory() / 2));
+    }
+
+    /**
+     * Creates a server that will listen on the loopback interface.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @param sessions where sessions are kept
+     * @throws IllegalStateException if there are more tiles than FRAME has digits for
+     */
+
+    public GameServer(int port, SessionManager sessions) {
+        if (Tileset.count() > DIGITS.length) {
+            throw new IllegalStateException(Tileset.count() + " tiles but FRAME rows only have "
+                    + DIGITS.length + " digits to send them as");
+        }
+        this.port = port;
+        this.sessions = sessions;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) << 20 : Runtime.getRuntime().maxMemory() / 2;
+        GameServer server = new GameServer(port, new SessionManager(Paths.get("sessions"), budget));
+        server.start();
+        System.out.println("Game server listening on port " + server.getPort());
+    }
+
+    /**
+     * Binds the socket and starts accepting connections in the background.
+     *
+     * @throws IOException if the port can't be bound
+     * @throws IllegalStateException if the server was already started
+     */
+
+    public synchronized void start() throws IOException {
+        if (socket != null) {
+            throw new IllegalStateException("server already started");
+        }
+        socket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        connections = newConnectionExecutor();
+        sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "game-server-idle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long idle = TimeUnit.MINUTES.toNanos(IDLE_MINUTES);
+        sweeper.scheduleWithFixedDelay(() -> sessions.passivateIdle(idle), 1, 1, TimeUnit.MINUTES);
+        acceptor = new Thread(this::acceptLoop, "game-server-accept");
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting, and drops every open connection and session.
+     */
+
+    public synchronized void close() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close server socket: " + e.getMessage());
+        }
+        connections.shutdownNow();
+        sweeper.shutdownNow();
+        sessions.clear();
+    }
+
+    public int getPort() {
+        return socket == null ? port : socket.getLocalPort();
+    }
+
+    public SessionManager getSessions() {
+        return sessions;
+    }
+
+    //one virtual thread per connection on Java 21+, found by reflection so this still builds on 17
+    static ExecutorService newConnectionExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "game-session");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void acceptLoop() {
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                connections.execute(() -> serve(client));
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    System.out.println("Failed to accept connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        long id = -1;
+        int[] cells = null;
+        byte[] ids = null;
+        try (client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                     StandardCharsets.US_ASCII));
+             Writer out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(),
+                     StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+", 2);
+                String command = parts[0].toUpperCase();
+                String arg = parts.length > 1 ? parts[1] : "";
+                if (command.equals("QUIT")) {
+                    break;
+                }
+                // the session is only pinned while a command runs, so idle ones can go to disk
+                GameSession session = null;
+                try {
+                    if (command.equals("NEW")) {
+                        long seed = Long.parseLong(arg);
+                        if (id >= 0) {
+                            end(id);
+                        }
+                        session = sessions.create(seed);
+                        id = session.getId();
+                        World world = session.getWorld();
+                        cells = new int[world.width * world.height];
+                        ids = new byte[world.width * world.height];
+                        out.write("OK " + id + " " + world.width + " " + world.height + "\n");
+                        writeFrame(out, session);
+                    } else if (command.equals("WATCH") && id < 0) {
+                        long target = Long.parseLong(arg);
+                        SpectatorFeed feed;
+                        session = sessions.acquire(target);
+                        synchronized (session) {
+                            GameSession watched = session;
+                            feed = feeds.computeIfAbsent(target, k -> new SpectatorFeed(watched.getWorld()));
+                        }
+                        SpectatorFeed.Spectator spectator = feed.subscribe();
+                        sessions.release(session);
+                        session = null;
+                        // end removes the session before the feed: either it finds this feed or we see it gone
+                        if (!sessions.contains(target)) {
+                            feeds.remove(target, feed);
+                            feed.close();
+                        }
+                        out.write("OK " + target + "\n");
+                        out.flush();
+                        try {
+                            watch(spectator, client);
+                        } finally {
+                            feed.unsubscribe(spectator);
+                        }
+                        break;
+                    } else if (id < 0) {
+                        out.write("ERR no game, send NEW seed first\n");
+                    } else if (command.equals("MOVE")) {
+                        if (arg.length() > MAX_KEYS_PER_LINE) {
+                            throw new IllegalArgumentException("at most " + MAX_KEYS_PER_LINE + " keys per MOVE");
+                        }
+                        session = sessions.acquire(id);
+                        // watchers read the world from this thread through the feed, see WATCH
+                        synchronized (session) {
+                            session.move(arg, feeds.get(id));
+                        }
+                        writeDelta(out, session, cells, ids);
+                        writeHud(out, session);
+                    } else if (command.equals("FRAME")) {
+                        session = sessions.acquire(id);
+                        writeFrame(out, session);
+                    } else {
+                        out.write("ERR unknown command " + command + "\n");
+                    }
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    // NumberFormatException lands here too
+                    out.write("ERR " + e.getMessage() + "\n");
+                } finally {
+                    if (session != null) {
+                        sessions.release(session);
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away, nothing to tell it
+        } finally {
+            if (id >= 0) {
+                end(id);
+            }
+        }
+    }
+
+    private void end(long id) {
+        sessions.remove(id);
+        SpectatorFeed feed = feeds.remove(id);
+        if (feed != null) {
+            feed.close();
+        }
+    }
+
+    //streams packets until the game ends, the watcher disconnects or falls too far behind
+    private static void watch(SpectatorFeed.Spectator spectator, Socket client) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+        byte[] bytes = new byte[256];
+        try {
+            while (true) {
+                ByteBuffer packet = spectator.take(WATCH_HEARTBEAT_MILLIS);
+                if (packet == null) {
+                    if (spectator.isOver()) {
+                        break;
+                    }
+                    // writing to a socket the watcher closed fails, which ends the watch
+                    out.writeInt(0);
+                    out.flush();
+                    continue;
+                }
+                int length = packet.remaining();
+                if (length > bytes.length) {
+                    bytes = new byte[length];
+                }
+                packet.get(bytes, 0, length);
+                out.writeInt(length);
+                out.write(bytes, 0, length);
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeFrame(Writer out, GameSession session) throws IOException {
+        World world = session.getWorld();
+        byte[] frame = session.fullFrame();
+        out.write("FRAME " + world.width + " " + world.height + "\n");
+        char[] row = new char[world.width + 1];
+        row[world.width] = '\n';
+        for (int y = world.height - 1; y >= 0; y--) {
+            for (int x = 0; x < world.width; x++) {
+                row[x] = DIGITS[frame[x * world.height + y]];
+            }
+            out.write(row);
+        }
+    }
+
+    private static void writeDelta(Writer out, GameSession session, int[] cells, byte[] ids) throws IOException {
+        int height = session.getWorld().height;
+        int count = session.frameDelta(cells, ids);
+        out.write("DELTA " + count + "\n");
+        for (int i = 0; i < count; i++) {
+            out.write(cells[i] / height + " " + cells[i] % height + " " + ids[i] + "\n");
+        }
+    }
+
+    private static void writeHud(Writer out, GameSession session) throws IOException {
+        World world = session.getWorld();
+        out.write("HUD " + session.getHarvest() + " " + world.getMoves() + " " + world.getTick() + "\n");
+    }
+}
@@ -0,0 +1,156 @@
+package core;
+
+/**
+ * One player's game, with everything Main otherwise keeps in static
+ * fields: the world, the move history and the last frame that was sent
+ * out. Nothing here touches StdDraw, so any number of sessions can run
+ * side by side in one JVM.
+ *
+ * A session is not thread safe; the server gives each one to a single
+ * connection thread.
+ */
+
+public class GameSession {
+    // nothing subscribes to a session's events, so its ring only needs to exist
+    static final int EVENT_CAPACITY = 8;
+
+    private final long id;
+    private final World world;
+    private final StringBuilder history;
+    // tile ids as last sent to the client, x * height + y
+    private byte[] sent;
+    private long lastActive;
+    // connections currently using this session, guarded by the SessionManager
+    int pins;
+
+    /**
+     * Starts a new game.
+     *
+     * @param id session id, unique within the server
+     * @param seed world seed
+     */
+
+    public GameSession(long id, long seed) {
+        this(id, new World(seed, World.GENERATOR, EVENT_CAPACITY), "N" + seed + "S");
+    }
+
+    //also used to bring a passivated session back, whose client already has the current frame
+    GameSession(long id, World world, String history) {
+        this.id = id;
+        this.world = world;
+        this.history = new StringBuilder(history);
+        this.sent = world.composeFrameIds();
+        this.lastActive = System.nanoTime();
+    }
+
+    /**
+     * Applies movement keys in order.
+     *
+     * @param keys any number of W, A, S and D, either case
+     * @throws IllegalArgumentException if keys contains anything else; no key is applied then
+     */
+
+    public void move(String keys) {
+        move(keys, null);
+    }
+
+    /**
+     * Applies movement keys in order, publishing every tick to spectators.
+     *
+     * @param keys any number of W, A, S and D, either case
+     * @param feed feed to publish each tick to, or null
+     * @throws IllegalArgumentException if keys contains anything else; no key is applied then
+     */
+
+    public void move(String keys, SpectatorFeed feed) {
+        String upper = keys.toUpperCase();
+        for (int i = 0; i < upper.length(); i++) {
+            if ("WASD".indexOf(upper.charAt(i)) < 0) {
+                throw new IllegalArgumentException("not a move: " + keys.charAt(i));
+            }
+        }
+        for (int i = 0; i < upper.length(); i++) {
+            world.step(upper.charAt(i));
+            history.append(upper.charAt(i));
+            if (feed != null) {
+                feed.publish(world);
+            }
+        }
+        lastActive = System.nanoTime();
+    }
+
+    /**
+     * Draws the current frame and returns every tile id, marking all of
+     * them as sent.
+     *
+     * @return tile ids, index x * height + y
+     */
+
+    public byte[] fullFrame() {
+        sent = world.composeFrameIds();
+        return sent.clone();
+    }
+
+    /**
+     * Draws the current frame and collects the cells that changed since
+     * the last frame or delta was taken.
+     *
+     * @param cells receives changed cell indices (x * height + y), in order;
+     *     must hold width * height entries
+     * @param ids receives the new tile id of each changed cell
+     * @return number of changed cells
+     */
+
+    public int frameDelta(int[] cells, byte[] ids) {
+        byte[] frame = world.composeFrameIds();
+        int count = 0;
+        for (int cell = 0; cell < frame.length; cell++) {
+            if (sent[cell] != frame[cell]) {
+                cells[count] = cell;
+                ids[count] = frame[cell];
+                count++;
+            }
+        }
+        sent = frame;
+        return count;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public int getHarvest() {
+        return world.Farmer.getHarvest();
+    }
+
+    /**
+     * Everything typed so far in the same N...S... form Main saves.
+     *
+     * @return the input history
+     */
+
+    public String getHistory() {
+        return history.toString();
+    }
+
+    public long getLastActive() {
+        return lastActive;
+    }
+
+    /**
+     * Rough heap footprint of this session, used by SessionManager to
+     * stay under its memory budget: the world (see World.heapBytes),
+     * the last frame sent and the history, which holds one byte per
+     * character as long as it is plain ASCII.
+     *
+     * @return estimated bytes
+     */
+
+    public long estimatedBytes() {
+        return world.heapBytes() + World.arrayBytes(sent.length, 1) + World.arrayBytes(history.capacity(), 1);
+    }
+}
@@ -3,12 +3,7 @@ package core;
 import tileengine.TETile;
 import tileengine.Tileset;
 
-import java.awt.Point;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Random;
-import java.util.Set;
 
 /**
  * The Hallway class is responsible for the generation of hallways
@@ -21,9 +16,15 @@ import java.util.Set;
  */
 
 public class Hallway {
+    private static final int MAX_STEPS = 200;
+
     private final World world;
     private final Random rand;
     private final TETile[][] tiles;
+    // the path of the hallway being built, reused between hallways; each step adds at most one tile
+    private final int[] pathXs = new int[MAX_STEPS + 1];
+    private final int[] pathYs = new int[MAX_STEPS + 1];
+    private int pathLength;
 
     /**
      * Creates new Hallway generator which references world and rand
@@ -49,18 +50,15 @@ public class Hallway {
      * Tries to avoid invalid paths and connect to another FLOOR tile
      * (Valid room or hallway)
      *
-     * @param start propagation point random point on the edge of room
-     * @param target final point to connect to (often center of another room)
-     * @param rooms List of all rooms to avoid during creation
+     * @param startX x-coordinate of the propagation point, a wall tile on the edge of a room
+     * @param startY y-coordinate of the propagation point
+     * @param targetX x-coordinate of the final point to connect to (often center of another room)
+     * @param targetY y-coordinate of the final point
      * @return true if the hallway successfully connects to a target;
      * false otherwise
      */
 
-    public boolean createHallway(Point start, Point target, List<Room> rooms) {
-        int startX = (int) start.getX();
-        int startY = (int) start.getY();
-        int targetX = (int) target.getX();
-        int targetY = (int) target.getY();
+    public boolean createHallway(int startX, int startY, int targetX, int targetY) {
 
         if (startX == 0 || startY == 0 || startX == tiles.length - 1 || startY == tiles[0].length - 1) {
             return false;
@@ -94,15 +92,14 @@ public class Hallway {
 
         int currentX = startX + dx;
         int currentY = startY + dy;
-        List<Point> path = new ArrayList<>();
-        path.add(new Point(startX, startY));
+        pathLength = 0;
+        addToPath(startX, startY);
 
-        int maxSteps = 200;
         int steps = 0;
         boolean reachedTarget = false;
         boolean horizontalPhase = (dx != 0);
 
-        while (steps < maxSteps && !reachedTarget) {
+        while (steps < MAX_STEPS && !reachedTarget) {
             steps++;
 
             //always checking if current position is valid
@@ -130,24 +127,24 @@ public class Hallway {
 
                 if (isInBounds(nextX, nextY) && tiles[nextX][nextY] == Tileset.FLOOR) {
                     tiles[currentX][currentY] = Tileset.FLOOR;
-                    path.add(new Point(currentX, currentY));
+                    addToPath(currentX, currentY);
                     reachedTarget = true;
                     break;
                 }
             }
             //if the floor is another hallway
             if (tiles[currentX][currentY] == Tileset.FLOOR &&
-                    !adjacentToPath(currentX, currentY, path)) {
-                path.add(new Point(currentX, currentY));
+                    !adjacentToPath(currentX, currentY)) {
+                addToPath(currentX, currentY);
                 reachedTarget = true;
                 break;
             }
 
-            path.add(new Point(currentX, currentY));
+            addToPath(currentX, currentY);
 
 
             // Added check current + dx or dy April 22 12:33AM - Kyle
-            if (tiles[currentX][currentY] == Tileset.GRASS ||
+            if (World.isGround(tiles[currentX][currentY]) ||
                     (tiles[currentX][currentY] == Tileset.WALL && tiles[currentX + dx][currentY + dy] != Tileset.WALL)) {
                 tiles[currentX][currentY] = Tileset.FLOOR;
             }
@@ -178,7 +175,7 @@ public class Hallway {
             int nextY = currentY + dy;
 
             if (!isValidHallwayPos(nextX, nextY) ||
-                    (tiles[nextX][nextY] == Tileset.FLOOR && !adjacentToPath(nextX, nextY, path))) {
+                    (tiles[nextX][nextY] == Tileset.FLOOR && !adjacentToPath(nextX, nextY))) {
 
                 if (horizontalPhase) {
                     dx = 0;
@@ -193,7 +190,7 @@ public class Hallway {
                 nextY = currentY + dy;
 
                 if (!isValidHallwayPos(nextX, nextY) ||
-                        (tiles[nextX][nextY] == Tileset.FLOOR && !adjacentToPath(nextX, nextY, path))) {
+                        (tiles[nextX][nextY] == Tileset.FLOOR && !adjacentToPath(nextX, nextY))) {
                     boolean found = false;
                     for (int[] dir : directions) {
                         int newDx = dir[0];
@@ -202,7 +199,7 @@ public class Hallway {
                         int newY = currentY + newDy;
 
                         if (isValidHallwayPos(newX, newY) &&
-                                !(tiles[newX][newY] == Tileset.FLOOR && !adjacentToPath(newX, newY, path))) {
+                                !(tiles[newX][newY] == Tileset.FLOOR && !adjacentToPath(newX, newY))) {
                             dx = newDx;
                             dy = newDy;
                             horizontalPhase = (dx != 0);
@@ -224,22 +221,24 @@ public class Hallway {
         return reachedTarget;
     }
 
+    private void addToPath(int x, int y) {
+        pathXs[pathLength] = x;
+        pathYs[pathLength] = y;
+        pathLength++;
+    }
+
     /**
-     * Determines if given (x,y) is adjacent to any tile in given path.
+     * Determines if given (x,y) is adjacent to any tile in the current path.
      * Used to avoid repeating operations
      *
      * @param x x-coordinate to check.
      * @param y y-coordinate to check.
-     * @param path The current hallway path.
      * @return true if adjacent to path, false otherwise
      */
 
-    private boolean adjacentToPath(int x, int y, List<Point> path) {
-        for (Point p : path) {
-            int px = (int) p.getX();
-            int py = (int) p.getY();
-
-            if ((Math.abs(px - x) + Math.abs(py - y)) == 1) {
+    private boolean adjacentToPath(int x, int y) {
+        for (int i = 0; i < pathLength; i++) {
+            if ((Math.abs(pathXs[i] - x) + Math.abs(pathYs[i] - y)) == 1) {
                 return true;
             }
         }
@@ -248,7 +247,7 @@ public class Hallway {
 
     /**
      * Validates if tile is a valid position for hallway construction.
-     * Valid positions are either GRASS, WALL, or existing FLOOR.
+     * Valid positions are either ground (grass or a biome), WALL, or existing FLOOR.
      *
      * @param x x-coordinate to check.
      * @param y y-coordinate to check.
@@ -256,7 +255,7 @@ public class Hallway {
      */
 
     private boolean isValidHallwayPos(int x, int y) {
-        return isInBounds(x, y) && (tiles[x][y] == Tileset.GRASS || tiles[x][y] == Tileset.FLOOR || tiles[x][y] == Tileset.WALL);
+        return isInBounds(x, y) && (World.isGround(tiles[x][y]) || tiles[x][y] == Tileset.FLOOR || tiles[x][y] == Tileset.WALL);
     }
 
     /**
@@ -0,0 +1,183 @@
+package core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Host side of a shared world played in lockstep. Farmers submit keys
+ * whenever they like; every call to advance seals them into one
+ * TickBatch (at most one key per farmer, in slot order), applies it to
+ * the host's world and hands the encoded batch to every listener.
+ * Clients that apply the same batches to a world of the same seed stay
+ * in step with the host without ever being sent the world itself.
+ *
+ * Keys a farmer types faster than the tick rate queue up and go out one
+ * per tick. Every batch is kept, so anyone can rebuild the world from
+ * the seed with replay.
+ */
+
+public class LockstepMatch {
+    // keys a single farmer may have waiting before more are refused
+    public static final int MAX_QUEUED = 64;
+
+    /**
+     * Receives every tick packet, in order, on the thread that called advance.
+     */
+    public interface Listener {
+        void onTick(byte[] packet);
+    }
+
+    private final long seed;
+    private final World world;
+    private final List<ArrayDeque<Character>> queued = new ArrayList<>();
+    private final List<byte[]> history = new ArrayList<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private int joining;
+
+    /**
+     * Starts a match on a new world. Its first farmer is slot 0.
+     *
+     * @param seed world seed
+     */
+
+    public LockstepMatch(long seed) {
+        this.seed = seed;
+        this.world = new World(seed);
+        queued.add(new ArrayDeque<>());
+    }
+
+    /**
+     * Reserves a slot for a new farmer, who appears on the next tick.
+     *
+     * @return the new farmer's slot
+     */
+
+    public synchronized int join() {
+        queued.add(new ArrayDeque<>());
+        joining++;
+        return queued.size() - 1;
+    }
+
+    /**
+     * Queues keys for a farmer, one of which is used per tick.
+     *
+     * @param slot the farmer's slot
+     * @param keys any number of W, A, S and D, either case
+     * @throws IllegalArgumentException if the slot doesn't exist, a key isn't
+     *     a move, or the farmer's queue would grow past MAX_QUEUED
+     */
+
+    public synchronized void submit(int slot, String keys) {
+        if (slot < 0 || slot >= queued.size()) {
+            throw new IllegalArgumentException("no farmer in slot " + slot);
+        }
+        String upper = keys.toUpperCase();
+        for (int i = 0; i < upper.length(); i++) {
+            if ("WASD".indexOf(upper.charAt(i)) < 0) {
+                throw new IllegalArgumentException("not a move: " + keys.charAt(i));
+            }
+        }
+        ArrayDeque<Character> queue = queued.get(slot);
+        if (queue.size() + upper.length() > MAX_QUEUED) {
+            throw new IllegalArgumentException("too many keys waiting for slot " + slot);
+        }
+        for (int i = 0; i < upper.length(); i++) {
+            queue.add(upper.charAt(i));
+        }
+    }
+
+    /**
+     * Seals this tick's inputs into a batch, applies it and sends it to
+     * every listener. Meant to be called at a fixed rate by one thread.
+     *
+     * @return the encoded batch
+     */
+
+    public byte[] advance() {
+        byte[] packet;
+        synchronized (this) {
+            int first = world.farmerCount();
+            int count = joining;
+            for (int slot = 0; slot < first; slot++) {
+                if (!queued.get(slot).isEmpty()) {
+                    count++;
+                }
+            }
+            int[] slots = new int[count];
+            char[] keys = new char[count];
+            int i = 0;
+            for (int slot = 0; slot < queued.size(); slot++) {
+                if (slot >= first) {
+                    slots[i] = slot;
+                    keys[i++] = TickBatch.JOIN;
+                } else if (!queued.get(slot).isEmpty()) {
+                    slots[i] = slot;
+                    keys[i++] = queued.get(slot).poll();
+                }
+            }
+            joining = 0;
+
+            TickBatch batch = new TickBatch(world.getTick(), slots, keys);
+            batch.applyTo(world);
+            packet = batch.encode();
+            history.add(packet);
+        }
+        for (Listener listener : listeners) {
+            listener.onTick(packet);
+        }
+        return packet;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Rebuilds a shared world from its seed and tick packets.
+     *
+     * @param seed world seed
+     * @param packets every packet from the first tick on, in order
+     * @return the world after the last packet
+     * @throws IllegalArgumentException if a packet is malformed
+     * @throws IllegalStateException if the packets skip or repeat a tick
+     */
+
+    public static World replay(long seed, List<byte[]> packets) {
+        World world = new World(seed);
+        for (byte[] packet : packets) {
+            TickBatch.decode(packet).applyTo(world);
+        }
+        return world;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * The host's world. Only read it while holding the match's lock, or
+     * from the thread that calls advance.
+     *
+     * @return the world
+     */
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Every packet sent so far, for a late joiner or a replay to catch up.
+     *
+     * @return a copy of the packet list
+     */
+
+    public synchronized List<byte[]> getHistory() {
+        return new ArrayList<>(history);
+    }
+}
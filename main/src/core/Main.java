@@ -5,8 +5,10 @@ import tileengine.TETile;
 import edu.princeton.cs.algs4.StdDraw;
 
 import java.awt.*;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 public class Main {
@@ -18,10 +20,43 @@ public class Main {
     private static TERenderer image;
     private static StringBuilder inputHistory = new StringBuilder();
 
-    private static int lastHarvest = -1;
+    private static EventBus.Subscriber hud;
+    private static EventBus.Subscriber history;
+    private static MoveJournal journal;
+    private static int hudHarvest;
+    private static boolean hudDirty = true;
     private static String lastHoveredTile = "";
 
+    // backtick shows and hides the timings next to the HUD
+    private static final char METRICS_KEY = '`';
+    private static final long METRICS_REFRESH = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final Font PROMPT_FONT = new Font("SansSerif", Font.PLAIN, 20);
+    private static final Font HUD_FONT = new Font("SansSerif", Font.BOLD, 18);
+    private static final Font METRICS_FONT = new Font("Monospaced", Font.PLAIN, 12);
+    private static final FrameMetrics metrics = new FrameMetrics();
+    private static boolean showMetrics;
+    private static long metricsDrawn;
+    // builds the world for the seed being typed before S is pressed
+    private static WorldPrefetcher prefetcher;
+    private static long autosaveMillis = Autosaver.DEFAULT_INTERVAL_MILLIS;
+    private static final String METRICS_PORT_PROPERTY = "metrics.port";
+    private static final String USAGE = "Usage: java core.Main [metrics port] [autosave seconds]\n"
+            + "  metrics port  serves /metrics on localhost, 0 or left out for off (also -D" + METRICS_PORT_PROPERTY + ")\n"
+            + "  autosave seconds  time between autosaves, 0 for off, " + Autosaver.DEFAULT_INTERVAL_MILLIS / 1000
+            + " if left out";
+    private static Autosaver autosaver;
+
     public static void main(String[] args) {
+        // the metrics endpoint is for debugging, so it's off unless a port is given here or in -Dmetrics.port
+        int metricsPort = (int) numberArg(args, 0, Integer.getInteger(METRICS_PORT_PROPERTY, 0), 65535);
+        autosaveMillis = numberArg(args, 1, autosaveMillis / 1000, Long.MAX_VALUE / 1000) * 1000;
+        if (metricsPort != 0) {
+            try {
+                metrics.serve(metricsPort);
+            } catch (IOException e) {
+                System.out.println("Failed to start metrics endpoint: " + e.getMessage());
+            }
+        }
         MainMenu();
 
         while (true) {
@@ -41,10 +76,10 @@ public class Main {
                     inputHistory.setLength(0);
                     world = SaveLoad.loadGame(inputHistory);
                     if (world != null) {
-                        tiles = world.getWorld();
+                        tiles = new TETile[world.width][world.height];
                         image = new TERenderer();
                         image.initialize(tiles.length, tiles[0].length);
-                        image.renderFrame(tiles);
+                        renderWorld();
                         runGameLoop();
                         return;
                     } else {
@@ -59,6 +94,24 @@ public class Main {
         runGameLoop();
     }
 
+    //a missing argument gives the fallback, one that isn't a number from 0 to max prints the usage and quits
+    private static long numberArg(String[] args, int i, long fallback, long max) {
+        if (args.length <= i) {
+            return fallback;
+        }
+        try {
+            long value = Long.parseLong(args[i]);
+            if (value >= 0 && value <= max) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // same as out of range
+        }
+        System.out.println(USAGE);
+        System.exit(1);
+        return fallback;
+    }
+
     private static void MainMenu() {
         StdDraw.setCanvasSize(WIDTH * 16, HEIGHT * 16);
         StdDraw.setXscale(0, WIDTH);
@@ -79,8 +132,16 @@ public class Main {
         StdDraw.show();
     }
 
+    //the window and renderer are set up while the seed is typed, and every new prefix starts generating
     private static String getSeedInput() {
         StringBuilder seedBuilder = new StringBuilder();
+        prefetcher = new WorldPrefetcher();
+        if (image == null) {
+            image = new TERenderer();
+            image.initialize(WIDTH, HEIGHT);
+            image.warm();
+        }
+        StdDraw.setFont(PROMPT_FONT);
         drawBackground();
         StdDraw.setPenColor(StdDraw.WHITE);
         StdDraw.text(WIDTH / 2.0, HEIGHT * 0.7, "Enter a seed followed by S");
@@ -93,6 +154,7 @@ public class Main {
                     break;
                 } else if (Character.isDigit(input)) {
                     seedBuilder.append(input);
+                    prefetcher.offer(seedBuilder.toString());
                 }
 
                 drawBackground();
@@ -102,18 +164,46 @@ public class Main {
                 StdDraw.show();
             }
         }
+        if (seedBuilder.length() == 0) {
+            prefetcher.cancel();
+        }
         return seedBuilder.toString();
     }
 
     private static void startGame(long seed) {
-        world = new World(seed);
-        tiles = world.getWorld();
-        image = new TERenderer();
-        image.initialize(tiles.length, tiles[0].length);
-        image.renderFrame(tiles);
+        world = prefetcher.take(seed);
+        tiles = new TETile[world.width][world.height];
+        // worlds are always WIDTH x HEIGHT today, but don't draw into the wrong size if that changes
+        if (world.width != WIDTH || world.height != HEIGHT) {
+            image.initialize(tiles.length, tiles[0].length);
+        }
+        image.resetFont();
+        renderWorld();
         StdDraw.enableDoubleBuffering();
     }
 
+    //creatures live on their own layer, so draw them over the terrain before rendering
+    private static void renderWorld() {
+        world.composeFrame(tiles);
+        long start = System.nanoTime();
+        image.renderFrame(tiles);
+        metrics.render.recordSince(start);
+    }
+
+    //a full redraw of world, HUD and overlay, timing each part
+    private static void redraw(String tileDes) {
+        renderWorld();
+        long start = System.nanoTime();
+        drawHUD(hudHarvest, tileDes);
+        metrics.hud.recordSince(start);
+        if (showMetrics) {
+            drawMetrics();
+        }
+        start = System.nanoTime();
+        StdDraw.show();
+        metrics.show.recordSince(start);
+    }
+
     private static void drawBackground() {
         StdDraw.setPenColor(StdDraw.BLACK);
         StdDraw.filledRectangle(WIDTH / 2.0, HEIGHT / 2.0, WIDTH, HEIGHT);
@@ -132,28 +222,97 @@ public class Main {
         StdDraw.rectangle(hudX, hudY, hudWidth / 2.0, hudHeight / 2.0);
 
         // Text logic
-        StdDraw.setFont(new Font("SansSerif", Font.BOLD, 18));
+        StdDraw.setFont(HUD_FONT);
         StdDraw.setPenColor(Color.WHITE);
 
         // Harvest information
-        String textHarvest = "Harvest: " + world.Farmer.getHarvest();
+        String textHarvest = "Harvest: " + harvest;
         StdDraw.textLeft(hudX - (hudWidth / 2.0) + 0.5, hudY + 0.5, textHarvest);
 
         String mouse = "*" + tileDes;
         StdDraw.textLeft(hudX - (hudWidth / 2.0) + 0.5, hudY - 1.0, mouse);
     }
 
+    //debug overlay to the left of the HUD, one line per timing and one of event counts
+    private static void drawMetrics() {
+        List<String> lines = metrics.summaries();
+        double lineHeight = 0.9;
+        double overlayWidth = 26.0;
+        double overlayHeight = lines.size() * lineHeight + 0.6;
+        double overlayX = world.width - 2.0 - 10.0 - 0.5 - (overlayWidth / 2.0);
+        double overlayY = world.height - 2.0 - (overlayHeight / 2.0);
+
+        StdDraw.setPenColor(Color.BLACK);
+        StdDraw.filledRectangle(overlayX, overlayY, overlayWidth / 2.0, overlayHeight / 2.0);
+        StdDraw.setPenColor(Color.WHITE);
+        StdDraw.rectangle(overlayX, overlayY, overlayWidth / 2.0, overlayHeight / 2.0);
+        StdDraw.setFont(METRICS_FONT);
+        double y = overlayY + (overlayHeight / 2.0) - 0.3 - (lineHeight / 2.0);
+        for (String line : lines) {
+            StdDraw.textLeft(overlayX - (overlayWidth / 2.0) + 0.5, y, line);
+            y -= lineHeight;
+        }
+        metricsDrawn = System.nanoTime();
+    }
+
+    //the HUD and input history are drained on the game thread, metrics count on their own thread
+    private static void subscribeToWorld() {
+        EventBus events = world.getEvents();
+        hudHarvest = world.Farmer.getHarvest();
+        world.timeMoves(metrics.move);
+        hud = events.subscribe(e -> {
+            if (e.type() == GameEvent.HARVEST) {
+                hudHarvest = e.value();
+                hudDirty = true;
+            }
+        });
+        history = events.subscribe(e -> {
+            if (e.type() == GameEvent.INPUT) {
+                inputHistory.append((char) e.value());
+            }
+        });
+        events.subscribe(metrics::countEvent).start("event-metrics");
+
+        journal = SaveLoad.startJournal(world);
+
+        if (autosaveMillis > 0) {
+            autosaver = new Autosaver(autosaveMillis);
+            metrics.add("autosave-capture", autosaver.getCaptureTimes());
+            metrics.add("autosave-write", autosaver.getWriteTimes());
+            metrics.addCount("autosave-written", autosaver::getWritten);
+            metrics.addCount("autosave-coalesced", autosaver::getCoalesced);
+            metrics.addCount("autosave-failed", autosaver::getFailed);
+        }
+    }
+
     private static void runGameLoop() {
         List<Character> movements = Arrays.asList('W', 'A', 'S', 'D');
         boolean colonPressed = false;
+        subscribeToWorld();
 
         while (true) {
             if (StdDraw.hasNextKeyTyped()) {
                 char input = Character.toUpperCase(StdDraw.nextKeyTyped());
+                long keyTime = System.nanoTime();
 
                 if (colonPressed && input == 'Q') {
+                    history.poll();
                     inputHistory.append(":Q");
-                    SaveLoad.saveGame(world, inputHistory.toString());
+                    if (autosaver != null) {
+                        try {
+                            autosaver.close();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    boolean saved = SaveLoad.saveGame(world, inputHistory.toString());
+                    if (journal != null) {
+                        if (saved) {
+                            journal.discard();
+                        } else {
+                            journal.close();
+                        }
+                    }
                     System.exit(0);
                 }
 
@@ -164,12 +323,22 @@ public class Main {
 
                 colonPressed = false;
 
+                if (input == METRICS_KEY) {
+                    showMetrics = !showMetrics;
+                    hudDirty = true;
+                }
+
                 if (movements.contains(input)) {
-                    world.Farmer.movePlayer(input);
-                    inputHistory.append(input);
-                    image.renderFrame(tiles);
-                    drawHUD(lastHarvest, lastHoveredTile);
-                    StdDraw.show();
+                    world.step(input);
+                    history.poll();
+                    hud.poll();
+                    hudDirty = false;
+                    redraw(lastHoveredTile);
+                    metrics.input.recordSince(keyTime);
+                    // after the frame is shown, so capturing a save never delays what the key did
+                    if (autosaver != null) {
+                        autosaver.maybeSave(world, inputHistory);
+                    }
                 }
             }
 
@@ -182,14 +351,16 @@ public class Main {
                 hoveredTile = tiles[mouseX][mouseY].description();
             }
 
-            int harvest = world.Farmer.getHarvest();
+            hud.poll();
+
+            if (showMetrics && System.nanoTime() - metricsDrawn >= METRICS_REFRESH) {
+                hudDirty = true;
+            }
 
-            if (harvest != lastHarvest || !hoveredTile.equals(lastHoveredTile)) {
+            if (hudDirty || !hoveredTile.equals(lastHoveredTile)) {
                 lastHoveredTile = hoveredTile;
-                lastHarvest = harvest;
-                image.renderFrame(tiles);
-                drawHUD(harvest, hoveredTile);
-                StdDraw.show();
+                hudDirty = false;
+                redraw(hoveredTile);
             }
         }
     }
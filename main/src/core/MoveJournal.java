@@ -0,0 +1,297 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only journal of every move, so a crash only loses the last
+ * few keystrokes instead of the whole session.
+ *
+ * The journal reads INPUT events off the world's EventBus on its own
+ * thread, so the game loop never touches the disk. That thread only
+ * copies moves into a pending buffer; a second thread swaps the buffer
+ * out and writes it, so a slow fsync never stops the ring being drained
+ * (and with it the game loop, once the ring fills up). Moves are written
+ * in batches and synced with one fsync per batch (group commit): a batch
+ * is committed once it holds commitCount moves or commitMillis have
+ * passed since the last sync, whichever comes first.
+ *
+ * Layout: magic (4 bytes), version (1), world generator (1), reserved (2), seed (8),
+ * base move index (8), game id (8), then one byte per move. The base is
+ * the number of moves already stored in the save file when the journal
+ * was started, so recovery is save moves followed by journal moves. The
+ * game id is World.getGameId, which the save file stores too: journal
+ * moves are only ever added to a save from the same game.
+ */
+
+public class MoveJournal {
+    public static final long DEFAULT_COMMIT_MILLIS = 200;
+    public static final int DEFAULT_COMMIT_COUNT = 64;
+    static final int MAGIC = 0x54474A4E;
+    static final byte VERSION = 2;
+    static final int HEADER_BYTES = 32;
+    // version 1 had no game id, so its header stopped after the base
+    private static final byte NO_GAME_ID_VERSION = 1;
+    private static final int NO_GAME_ID_HEADER_BYTES = 24;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final EventBus events;
+    private final EventBus.Subscriber subscriber;
+    private final long commitNanos;
+    private final int commitCount;
+    private final Thread writer;
+    private Thread drainer;
+    // moves the drainer has read but the writer hasn't taken yet, guarded by this
+    private ByteBuffer pending;
+    private boolean closing;
+    // the batch being written, only touched by the writer
+    private ByteBuffer batch;
+    private long lastCommit;
+    private volatile long committed;
+
+    /**
+     * Result of reading a journal back after a crash.
+     */
+    public static class Recovered {
+        public final long seed;
+        public final int generator;
+        // 0 for journals from before game ids
+        public final long gameId;
+        public final int base;
+        public final String moves;
+
+        Recovered(long seed, int generator, long gameId, int base, String moves) {
+            this.seed = seed;
+            this.generator = generator;
+            this.gameId = gameId;
+            this.base = base;
+            this.moves = moves;
+        }
+    }
+
+    private MoveJournal(Path path, FileChannel channel, EventBus events,
+                        long commitMillis, int commitCount) {
+        this.path = path;
+        this.channel = channel;
+        this.events = events;
+        this.commitNanos = commitMillis * 1_000_000L;
+        this.commitCount = commitCount;
+        this.pending = ByteBuffer.allocate(Math.max(commitCount, 1) * 4 + EventBus.DEFAULT_CAPACITY);
+        this.batch = ByteBuffer.allocate(pending.capacity());
+        this.subscriber = events.subscribe(this::onEvent);
+        this.lastCommit = System.nanoTime();
+        this.writer = new Thread(this::run, "move-journal-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Starts a fresh journal at path and begins recording the world's
+     * moves with the default commit policy. An old journal is never
+     * replaced, since it may hold the only copy of a crashed game's
+     * moves: recover or remove it first (SaveLoad.startJournal does).
+     *
+     * @param path journal file
+     * @param world world whose moves are recorded
+     * @return the running journal
+     * @throws IOException if the journal can't be created or already exists
+     */
+
+    public static MoveJournal start(Path path, World world) throws IOException {
+        return start(path, world, DEFAULT_COMMIT_MILLIS, DEFAULT_COMMIT_COUNT);
+    }
+
+    /**
+     * Starts a fresh journal with a custom group commit policy.
+     *
+     * @param path journal file
+     * @param world world whose moves are recorded
+     * @param commitMillis longest time a move waits before being synced
+     * @param commitCount number of moves that forces a sync
+     * @return the running journal
+     * @throws IOException if the journal can't be created or already exists
+     */
+
+    public static MoveJournal start(Path path, World world, long commitMillis, int commitCount)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).put(VERSION).put((byte) world.getGenerator()).put(new byte[2]);
+        header.putLong(world.getSeed()).putLong(world.getMoves()).putLong(world.getGameId());
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(false);
+
+        MoveJournal journal = new MoveJournal(path, channel, world.getEvents(), commitMillis, commitCount);
+        journal.drainer = journal.subscriber.start("move-journal");
+        journal.writer.start();
+        return journal;
+    }
+
+    /**
+     * Reads a journal back. A torn final write just ends the move list early.
+     *
+     * @param path journal file
+     * @return what the journal holds, or null if there is no usable journal
+     */
+
+    public static Recovered recover(Path path) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (buf.remaining() < NO_GAME_ID_HEADER_BYTES || buf.getInt() != MAGIC) {
+                return null;
+            }
+            byte version = buf.get();
+            if (version != VERSION && version != NO_GAME_ID_VERSION
+                    || version == VERSION && buf.limit() < HEADER_BYTES) {
+                return null;
+            }
+            // journals from before the generator was recorded have 0 there
+            int generator = Math.max(buf.get(), World.GRASS_GENERATOR);
+            buf.position(8);
+            long seed = buf.getLong();
+            int base = (int) buf.getLong();
+            long gameId = version == VERSION ? buf.getLong() : 0;
+            StringBuilder moves = new StringBuilder(buf.remaining());
+            while (buf.hasRemaining()) {
+                char move = (char) buf.get();
+                if ("WASD".indexOf(move) < 0) {
+                    break;
+                }
+                moves.append(move);
+            }
+            return new Recovered(seed, generator, gameId, base, moves.toString());
+        } catch (IOException e) {
+            System.out.println("Failed to read journal: " + e.getMessage());
+            return null;
+        }
+    }
+
+    //called from poll on the drainer thread, never on the game thread
+    private void onEvent(GameEvent event) {
+        if (event.type() == GameEvent.INPUT) {
+            synchronized (this) {
+                if (!pending.hasRemaining()) {
+                    // the writer is stuck on the disk, keep the moves rather than wait for it
+                    ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2);
+                    pending.flip();
+                    pending = bigger.put(pending);
+                }
+                pending.put((byte) event.value());
+                if (pending.position() >= commitCount) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void run() {
+        boolean reported = false;
+        boolean last = false;
+        while (!last) {
+            synchronized (this) {
+                awaitBatch();
+                last = closing;
+                ByteBuffer full = pending;
+                pending = batch;
+                batch = full;
+            }
+            commit();
+            if (!reported && subscriber.isDropped()) {
+                // the moves it missed are gone from the ring, the next save has to cover them
+                System.out.println("Failed to write journal: fell a whole event ring behind the game");
+                reported = true;
+            }
+        }
+    }
+
+    //waits, holding this, until pending is due to be committed or the journal is closing
+    private void awaitBatch() {
+        try {
+            while (!closing && pending.position() < commitCount) {
+                long wait = lastCommit + commitNanos - System.nanoTime();
+                if (wait <= 0) {
+                    if (pending.position() > 0) {
+                        return;
+                    }
+                    lastCommit = System.nanoTime();
+                    wait = commitNanos;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, wait);
+            }
+        } catch (InterruptedException e) {
+            closing = true;
+        }
+    }
+
+    //one write and one fsync for the whole batch, on the writer thread without holding this
+    private void commit() {
+        if (batch.position() == 0) {
+            lastCommit = System.nanoTime();
+            return;
+        }
+        batch.flip();
+        try {
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+            committed += batch.limit();
+        } catch (IOException e) {
+            System.out.println("Failed to write journal: " + e.getMessage());
+        }
+        batch.clear();
+        lastCommit = System.nanoTime();
+    }
+
+    /**
+     * Flushes everything still pending and stops the writer thread.
+     */
+
+    public void close() {
+        subscriber.stop();
+        try {
+            // the drainer polls once more on its way out, then the writer commits what it read
+            drainer.join();
+            synchronized (this) {
+                closing = true;
+                notifyAll();
+            }
+            writer.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Failed to close journal: " + e.getMessage());
+        }
+        events.unsubscribe(subscriber);
+    }
+
+    /**
+     * Closes the journal and deletes it. Called after a clean save,
+     * once everything in the journal is in the save file too.
+     */
+
+    public void discard() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Failed to delete journal: " + e.getMessage());
+        }
+    }
+
+    public long getCommitted() {
+        return committed;
+    }
+}
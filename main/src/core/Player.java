@@ -1,23 +1,23 @@
 package core;
 
-import tileengine.TETile;
 import tileengine.Tileset;
 
-import java.awt.*;
-
 public class Player {
     private final World world;
-    private final TETile[][] myWorld;
-    private Point location;
+    private final int id;
     private int harvest;
 
-    public Player(World world, Point start) {
+    public Player(World world, int x, int y) {
         this.world = world;
-        this.myWorld = world.getWorld();
-        this.location = start;
+        this.id = world.getEntities().spawn(Entities.FARMER, x, y);
         this.harvest = 0;
+    }
 
-        myWorld[start.x][start.y] = Tileset.AVATAR;
+    //wraps a farmer entity that already exists, e.g. one restored from a snapshot
+    Player(World world, int id) {
+        this.world = world;
+        this.id = id;
+        this.harvest = 0;
     }
 
     public void movePlayer(char key) {
@@ -37,45 +37,43 @@ public class Player {
             dx++;
         }
 
-        Point nextLocation = new Point(location.x + dx, location.y + dy);
-
-        updateLocation(this.location, nextLocation);
+        updateLocation(getX() + dx, getY() + dy);
     }
 
-    private void updateLocation(Point start, Point end) {
-        if (!validPos(end)) {
+    private void updateLocation(int x, int y) {
+        // Walls, the map edge and other creatures all block the move
+        if (!world.getEntities().move(id, x, y)) {
             return;
         }
 
-        this.location = end;
-        myWorld[end.x][end.y] = Tileset.AVATAR;
-        myWorld[start.x][start.y] = Tileset.FLOOR;
-    }
-
-    private boolean validPos(Point end) {
-
-        TETile nextTile = myWorld[end.x][end.y];
+        EventBus events = world.getEvents();
+        events.publish(GameEvent.MOVE, id, x, y, 0, world.getTick());
 
-        // Out of bounds condition
-        if (end.x < 0 || end.x >= myWorld.length || end.y < 0 || end.y >= myWorld[0].length) {
-            return false;
-        }
-        // Wall condition
-        if (nextTile == Tileset.WALL) {
-            return false;
-        }
-        // Grass condition
-        if (nextTile == Tileset.GRASS) {
+        // Grass condition, walking over grass harvests it
+        if (world.getTile(x, y) == Tileset.GRASS) {
             harvest++;
-            return true;
+            world.harvest(x, y);
+            events.publish(GameEvent.HARVEST, id, x, y, harvest, world.getTick());
         }
-        // Floor condition
-        return true;
     }
 
     public int getHarvest() {
         return harvest;
     }
 
+    void setHarvest(int harvest) {
+        this.harvest = harvest;
+    }
+
+    public int getX() {
+        return world.getEntities().x(id);
+    }
+
+    public int getY() {
+        return world.getEntities().y(id);
+    }
 
+    public int getId() {
+        return id;
+    }
 }
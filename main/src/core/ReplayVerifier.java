@@ -0,0 +1,189 @@
+package core;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless check that saves still replay to the world they recorded.
+ *
+ * Every save written since version 3 of the save format carries the
+ * world's state hash after the last move and a trail of hashes taken
+ * every World.HASH_INTERVAL moves. This replays each save in a directory
+ * from its seed (ignoring the checkpoint, which would skip exactly the
+ * moves we want to check) and compares hashes along the way, so a
+ * change to generation or movement that breaks old saves shows up as
+ * the first window of moves where they stop matching. A save that can't
+ * be read or whose replay throws is reported as failed, with the cause,
+ * rather than as a divergence.
+ *
+ * Saves are independent, so they are replayed on every core at once.
+ *
+ * Usage: java core.ReplayVerifier [directory] [threads]
+ * Exits with status 1 if any save diverged or failed.
+ */
+
+public class ReplayVerifier {
+
+    /**
+     * Outcome of replaying one save.
+     */
+    public static class Result {
+        public final Path path;
+        public final int moves;
+        public final boolean verified;
+        // couldn't be read or replayed at all, note says why
+        public final boolean failed;
+        // first and last move of the window the divergence happened in, -1 if none
+        public final int divergedFrom;
+        public final int divergedTo;
+        public final String note;
+
+        Result(Path path, int moves, boolean verified, boolean failed, int divergedFrom, int divergedTo, String note) {
+            this.path = path;
+            this.moves = moves;
+            this.verified = verified;
+            this.failed = failed;
+            this.divergedFrom = divergedFrom;
+            this.divergedTo = divergedTo;
+            this.note = note;
+        }
+
+        public boolean diverged() {
+            return divergedFrom >= 0;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : ".");
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        List<Path> saves = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.bin")) {
+            for (Path path : stream) {
+                saves.add(path);
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = verifyAll(saves, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int verified = 0;
+        int diverged = 0;
+        int failed = 0;
+        int skipped = 0;
+        long moves = 0;
+        Result earliest = null;
+        for (Result result : results) {
+            moves += result.moves;
+            if (result.failed) {
+                failed++;
+                System.out.println(result.path.getFileName() + " failed: " + result.note);
+            } else if (result.diverged()) {
+                diverged++;
+                System.out.println(result.path.getFileName() + " diverges in moves "
+                        + result.divergedFrom + "-" + result.divergedTo);
+                if (earliest == null || result.divergedFrom < earliest.divergedFrom) {
+                    earliest = result;
+                }
+            } else if (result.verified) {
+                verified++;
+            } else {
+                skipped++;
+                System.out.println(result.path.getFileName() + " skipped: " + result.note);
+            }
+        }
+
+        System.out.printf("Replayed %d saves (%d ok, %d diverged, %d failed, %d skipped) in %.2fs on %d threads%n",
+                results.size(), verified, diverged, failed, skipped, seconds, threads);
+        System.out.printf("%.1f replays/s, %.0f moves/s%n", results.size() / seconds, moves / seconds);
+        if (earliest != null) {
+            System.out.println("Earliest divergence: move " + earliest.divergedFrom
+                    + " in " + earliest.path.getFileName());
+        }
+        if (diverged > 0 || failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Replays saves in parallel.
+     *
+     * @param saves save files to check
+     * @param threads number of worker threads
+     * @return one result per save, in the same order
+     * @throws InterruptedException if interrupted while waiting for replays
+     */
+
+    public static List<Result> verifyAll(List<Path> saves, int threads) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Result>> pending = new ArrayList<>(saves.size());
+            for (Path path : saves) {
+                pending.add(pool.submit(() -> verify(path)));
+            }
+            List<Result> results = new ArrayList<>(saves.size());
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    results.add(pending.get(i).get());
+                } catch (ExecutionException e) {
+                    // a replay that throws hasn't diverged anywhere in particular, it just didn't finish
+                    results.add(new Result(saves.get(i), 0, false, true, -1, -1,
+                            "replay failed: " + e.getCause()));
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Replays one save from its seed and compares state hashes.
+     *
+     * @param path save file
+     * @return the outcome
+     */
+
+    public static Result verify(Path path) {
+        SaveFile save;
+        try {
+            save = SaveFile.read(path);
+        } catch (IOException e) {
+            // a save that is there but can't be read is a problem, not something to skip
+            return new Result(path, 0, false, true, -1, -1, e.getMessage());
+        }
+        if (save == null) {
+            return new Result(path, 0, false, false, -1, -1, "not a save file");
+        }
+        if (!save.hasStateHash()) {
+            return new Result(path, 0, false, false, -1, -1, "saved before state hashes were recorded");
+        }
+
+        String moves = save.getMoves();
+        long[] trail = save.getHashTrail();
+        World world = new World(save.getSeed(), save.getGenerator());
+        for (int i = 0; i < moves.length(); i++) {
+            world.step(moves.charAt(i));
+            int done = i + 1;
+            int mark = done / World.HASH_INTERVAL - 1;
+            if (done % World.HASH_INTERVAL == 0 && mark < trail.length && trail[mark] != world.stateHash()) {
+                return new Result(path, done, false, false, done - World.HASH_INTERVAL + 1, done, null);
+            }
+        }
+        if (world.stateHash() != save.getStateHash()) {
+            int from = Math.min(trail.length * World.HASH_INTERVAL, moves.length()) + 1;
+            return new Result(path, moves.length(), false, false, Math.min(from, moves.length()), moves.length(), null);
+        }
+        return new Result(path, moves.length(), true, false, -1, -1, null);
+    }
+}
@@ -0,0 +1,323 @@
+package core;
+
+import tileengine.TETile;
+import tileengine.Tileset;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Every room in a world as parallel primitive arrays, the same way
+ * Entities keeps creatures. A room is just an index into the table.
+ *
+ * Rooms are squares with walls on the perimeter and floor inside. The
+ * perimeter wall tiles that hallways may start from (every edge tile
+ * but the four corners) are never stored: perimeter index k is turned
+ * into a tile with a little arithmetic, in the same order the old
+ * per-room Point lists used, column by column from the left:
+ *   left side     k < L                 (x, y + 1 + k)
+ *   middle        L <= k < 3L, m = k-L  (x + 1 + m / 2, bottom if m is even, else top)
+ *   right side    3L <= k < 4L          (x + size - 1, y + 1 + k - 3L)
+ * where L = size - 2.
+ */
+
+public class RoomTable {
+    private int[] xs;
+    private int[] ys;
+    private int[] sizes;
+    private int[] centerXs;
+    private int[] centerYs;
+    private int count;
+
+    public RoomTable() {
+        int capacity = 16;
+        this.xs = new int[capacity];
+        this.ys = new int[capacity];
+        this.sizes = new int[capacity];
+        this.centerXs = new int[capacity];
+        this.centerYs = new int[capacity];
+    }
+
+    /**
+     * Places a square room of the given size somewhere random on ground,
+     * with at least one tile of ground all around it, and builds it into
+     * world. Tries 20 spots before giving up.
+     *
+     * @param world world being generated
+     * @param size side length including walls
+     * @param rand the world's generation random
+     * @return index of the new room
+     * @throws IllegalStateException if no spot was found
+     */
+
+    public int place(World world, int size, Random rand) {
+        TETile[][] grid = world.getWorld();
+        int worldWidth = grid.length;
+        int worldHeight = grid[0].length;
+
+        boolean valid = false;
+        int x = 0;
+        int y = 0;
+        int count = 0;
+
+        while (!valid && count < 20) {
+            x = rand.nextInt(worldWidth);
+            y = rand.nextInt(worldHeight);
+
+            // Checks if propagation tile was placed in an existing room
+            if (!world.isGround(x, y)) {
+                continue;
+            }
+
+            if (!checkTileBuffer(x, y, size, grid)) {
+                count++;
+                continue; // Try a new spot
+            }
+            valid = true;
+        }
+
+        if (!valid) {
+            throw new IllegalStateException("Failed to place room after 20 attempts.");
+        }
+
+        // Building room in valid space
+        for (int i = x; i < x + size; i++) {
+            for (int j = y; j < y + size; j++) {
+                boolean edge = (i == x || i == x + size - 1 || j == y || j == y + size - 1);
+                grid[i][j] = edge ? Tileset.WALL : Tileset.FLOOR;
+            }
+        }
+        return add(x, y, size);
+    }
+
+    /**
+     * Adds a room that is already in the world, such as one read back
+     * from a snapshot. The tiles are left alone.
+     *
+     * @param x x-coordinate of the room's bottom left corner
+     * @param y y-coordinate of the room's bottom left corner
+     * @param size side length including walls
+     * @return index of the room
+     */
+
+    public int add(int x, int y, int size) {
+        if (count == xs.length) {
+            grow();
+        }
+        int room = count++;
+        xs[room] = x;
+        ys[room] = y;
+        sizes[room] = size;
+        centerXs[room] = x + size / 2;
+        centerYs[room] = y + size / 2;
+        return room;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int x(int room) {
+        return xs[room];
+    }
+
+    public int y(int room) {
+        return ys[room];
+    }
+
+    public int size(int room) {
+        return sizes[room];
+    }
+
+    public int centerX(int room) {
+        return centerXs[room];
+    }
+
+    public int centerY(int room) {
+        return centerYs[room];
+    }
+
+    /**
+     * Number of perimeter wall tiles hallways can start from.
+     *
+     * @param room room index
+     * @return edge tiles that aren't corners
+     */
+
+    public int perimeterLength(int room) {
+        return 4 * (sizes[room] - 2);
+    }
+
+    public int perimeterX(int room, int k) {
+        int side = sizes[room] - 2;
+        if (k < side) {
+            return xs[room];
+        }
+        if (k < 3 * side) {
+            return xs[room] + 1 + (k - side) / 2;
+        }
+        return xs[room] + sizes[room] - 1;
+    }
+
+    public int perimeterY(int room, int k) {
+        int side = sizes[room] - 2;
+        if (k < side) {
+            return ys[room] + 1 + k;
+        }
+        if (k < 3 * side) {
+            return (k - side) % 2 == 0 ? ys[room] : ys[room] + sizes[room] - 1;
+        }
+        return ys[room] + 1 + k - 3 * side;
+    }
+
+    /**
+     * Walks a room's perimeter wall tiles in perimeter order without
+     * building a list of them.
+     *
+     * @param room room index
+     * @return a cursor before the first tile
+     */
+
+    public Perimeter perimeter(int room) {
+        return new Perimeter(room);
+    }
+
+    /**
+     * Finds the perimeter tiles of room nearest to (x, y) without sorting
+     * the whole perimeter. Equally near tiles keep perimeter order, so the
+     * result is the start of what a stable sort by distance would give.
+     *
+     * @param room room index
+     * @param x target x-coordinate
+     * @param y target y-coordinate
+     * @param nearest filled with perimeter indices, nearest first
+     * @return how many were filled, the smaller of nearest.length and the perimeter length
+     */
+
+    public int nearest(int room, int x, int y, int[] nearest) {
+        int n = Math.min(nearest.length, perimeterLength(room));
+        if (n == 0) {
+            return 0;
+        }
+        long[] best = new long[n];
+        int found = 0;
+        for (int k = 0; k < perimeterLength(room); k++) {
+            long key = distanceKey(room, k, x, y);
+            if (found == n && key >= best[n - 1]) {
+                continue;
+            }
+            // insertion into the few kept so far, dropping the farthest when full
+            int i = found < n ? found++ : n - 1;
+            while (i > 0 && best[i - 1] > key) {
+                best[i] = best[i - 1];
+                i--;
+            }
+            best[i] = key;
+        }
+        for (int i = 0; i < n; i++) {
+            nearest[i] = (int) best[i];
+        }
+        return n;
+    }
+
+    /**
+     * Every perimeter index of room, nearest to (x, y) first, with equally
+     * near tiles in perimeter order.
+     *
+     * @param room room index
+     * @param x target x-coordinate
+     * @param y target y-coordinate
+     * @return the perimeter indices
+     */
+
+    public int[] byDistance(int room, int x, int y) {
+        long[] keys = new long[perimeterLength(room)];
+        for (int k = 0; k < keys.length; k++) {
+            keys[k] = distanceKey(room, k, x, y);
+        }
+        Arrays.sort(keys);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    //squared distance above the perimeter index, so ordering keys orders by distance and then by index
+    private long distanceKey(int room, int k, int x, int y) {
+        long dx = perimeterX(room, k) - x;
+        long dy = perimeterY(room, k) - y;
+        return ((dx * dx + dy * dy) << 32) | k;
+    }
+
+    private boolean checkTileBuffer(int x, int y, int size, TETile[][] world) {
+        int worldWidth = world.length;
+        int worldHeight = world[0].length;
+
+        for (int i = x - 1; i <= x + size; i++) {
+            for (int j = y - 1; j <= y + size; j++) {
+                // Skip out-of-bounds tiles (just treat them as unsafe)
+                if (i < 0 || j < 0 || i >= worldWidth || j >= worldHeight) {
+                    return false;
+                }
+
+                // If any tile in the 1-tile buffer isn't ground, reject
+                if (!World.isGround(world[i][j])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        int capacity = xs.length * 2;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        centerXs = Arrays.copyOf(centerXs, capacity);
+        centerYs = Arrays.copyOf(centerYs, capacity);
+    }
+
+    /**
+     * Cursor over one room's perimeter wall tiles. Call next before
+     * reading the first tile.
+     */
+    public class Perimeter {
+        private final int room;
+        private int k = -1;
+
+        private Perimeter(int room) {
+            this.room = room;
+        }
+
+        /**
+         * Moves to the next tile.
+         *
+         * @return false once every tile has been visited
+         */
+
+        public boolean next() {
+            if (k < perimeterLength(room)) {
+                k++;
+            }
+            return k < perimeterLength(room);
+        }
+
+        public int index() {
+            return k;
+        }
+
+        public int x() {
+            return perimeterX(room, k);
+        }
+
+        public int y() {
+            return perimeterY(room, k);
+        }
+    }
+
+    long heapBytes() {
+        return 5 * World.arrayBytes(xs.length, 4);
+    }
+}
@@ -0,0 +1,345 @@
+package core;
+
+import utils.Varints;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The SaveFile class reads and writes the binary save format.
+ *
+ * Layout (all integers are varints unless noted):
+ *   magic      4 bytes, "TGSV"
+ *   version    1 byte
+ *   seed       zigzag varint
+ *   generator  World generator version the map was made with
+ *   gameId     8 bytes, World.getGameId, so a journal can tell whether it belongs to this save
+ *   moveCount
+ *   moves      2 bits per move, 4 moves per byte, first move in the low bits
+ *   hasCheckpoint 1 byte, followed by the checkpoint block if set.
+ *              Its tiles are a TileDiff against the world the seed and generator make
+ *   stateHash  8 bytes, World.stateHash after the last move
+ *   trailCount
+ *   trail      trailCount * 8 bytes, World.stateHash every HASH_INTERVAL moves
+ *   crc32      4 bytes over everything before it
+ *
+ * A move costs a quarter of a byte instead of the two bytes per char
+ * (plus serialization overhead) of the old ObjectOutputStream format,
+ * and a checkpoint only costs the tiles the player has changed.
+ */
+
+public class SaveFile {
+    static final int MAGIC = 0x54475356;
+    static final byte VERSION = 5;
+    // version 1 stored every checkpoint tile instead of a diff
+    private static final byte FULL_TILES_VERSION = 1;
+    // versions before this have no state hashes
+    private static final byte HASHES_VERSION = 3;
+    // versions before this were all made with World.GRASS_GENERATOR
+    private static final byte GENERATOR_VERSION = 4;
+    // versions before this have no game id
+    private static final byte GAME_ID_VERSION = 5;
+    private static final String MOVES = "WASD";
+
+    private final long seed;
+    private final int generator;
+    private final long gameId;
+    private final String moves;
+    private final Checkpoint checkpoint;
+    private final boolean hasStateHash;
+    private final long stateHash;
+    private final long[] hashTrail;
+
+    private SaveFile(long seed, int generator, long gameId, String moves, Checkpoint checkpoint,
+                     boolean hasStateHash, long stateHash, long[] hashTrail) {
+        this.seed = seed;
+        this.generator = generator;
+        this.gameId = gameId;
+        this.moves = moves;
+        this.checkpoint = checkpoint;
+        this.hasStateHash = hasStateHash;
+        this.stateHash = stateHash;
+        this.hashTrail = hashTrail;
+    }
+
+    /**
+     * Writes a save file.
+     *
+     * @param path file to write
+     * @param seed world seed
+     * @param generator World generator version the map was made with
+     * @param gameId World.getGameId of the game being saved
+     * @param moves every move made so far, only W, A, S and D
+     * @param checkpoint latest checkpoint, or null
+     * @param stateHash World.stateHash after the last move
+     * @param hashTrail World.getHashTrail after the last move
+     * @throws IOException if the file can't be written
+     */
+
+    public static void write(Path path, long seed, int generator, long gameId, String moves, Checkpoint checkpoint,
+                             long stateHash, long[] hashTrail) throws IOException {
+        ByteBuffer buf = encode(seed, generator, gameId, moves, checkpoint, stateHash, hashTrail);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
+    /**
+     * Reads a save file written by write.
+     *
+     * @param path file to read
+     * @return the decoded save, or null if the file is not in this format
+     * @throws IOException if the file can't be read or its checksum is wrong
+     */
+
+    public static SaveFile read(Path path) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf = ByteBuffer.allocate((int) channel.size());
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                // keep reading until the buffer is full
+            }
+        }
+        buf.flip();
+        return decode(buf);
+    }
+
+    static ByteBuffer encode(long seed, int generator, long gameId, String moves, Checkpoint checkpoint,
+                             long stateHash, long[] hashTrail) {
+        int size = 4 + 1 + Varints.MAX_LONG_BYTES * 3 + 8 + (moves.length() + 3) / 4 + 1 + 4
+                + 8 + Varints.MAX_LONG_BYTES + hashTrail.length * 8;
+        TileDiff diff = null;
+        if (checkpoint != null) {
+            diff = TileDiff.between(BaseWorlds.tiles(seed, generator), checkpoint.tiles);
+            size += checkpointSize(checkpoint, diff);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(MAGIC);
+        buf.put(VERSION);
+        Varints.putSignedVarLong(buf, seed);
+        Varints.putVarLong(buf, generator);
+        buf.putLong(gameId);
+        Varints.putVarLong(buf, moves.length());
+        packMoves(buf, moves);
+
+        buf.put((byte) (checkpoint == null ? 0 : 1));
+        if (checkpoint != null) {
+            putCheckpoint(buf, checkpoint, diff);
+        }
+        buf.putLong(stateHash);
+        Varints.putVarLong(buf, hashTrail.length);
+        for (long hash : hashTrail) {
+            buf.putLong(hash);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    static SaveFile decode(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 9 || buf.getInt(buf.position()) != MAGIC) {
+            return null;
+        }
+        int end = buf.limit() - 4;
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buf.duplicate();
+        body.limit(end);
+        crc.update(body);
+        if ((int) crc.getValue() != buf.getInt(end)) {
+            throw new IOException("save file checksum mismatch");
+        }
+
+        try {
+            buf.getInt();
+            byte version = buf.get();
+            if (version < FULL_TILES_VERSION || version > VERSION) {
+                throw new IOException("unsupported save version " + version);
+            }
+            long seed = Varints.getSignedVarLong(buf);
+            int generator = version < GENERATOR_VERSION ? World.GRASS_GENERATOR : Varints.getVarInt(buf);
+            long gameId = version < GAME_ID_VERSION ? 0 : buf.getLong();
+            int count = Varints.getVarInt(buf);
+            String moves = unpackMoves(buf, count);
+            Checkpoint checkpoint = buf.get() == 0 ? null : getCheckpoint(buf, seed, generator, version);
+            if (version < HASHES_VERSION) {
+                return new SaveFile(seed, generator, gameId, moves, checkpoint, false, 0, new long[0]);
+            }
+            long stateHash = buf.getLong();
+            long[] trail = new long[Varints.getVarInt(buf)];
+            for (int i = 0; i < trail.length; i++) {
+                trail[i] = buf.getLong();
+            }
+            return new SaveFile(seed, generator, gameId, moves, checkpoint, true, stateHash, trail);
+        } catch (RuntimeException e) {
+            throw new IOException("corrupt save file: " + e.getMessage(), e);
+        }
+    }
+
+    //4 moves to a byte, first move in the lowest 2 bits
+    static void packMoves(ByteBuffer buf, String moves) {
+        int packed = 0;
+        for (int i = 0; i < moves.length(); i++) {
+            int code = MOVES.indexOf(moves.charAt(i));
+            if (code < 0) {
+                throw new IllegalArgumentException("not a move: " + moves.charAt(i));
+            }
+            packed |= code << ((i & 3) * 2);
+            if ((i & 3) == 3) {
+                buf.put((byte) packed);
+                packed = 0;
+            }
+        }
+        if ((moves.length() & 3) != 0) {
+            buf.put((byte) packed);
+        }
+    }
+
+    static String unpackMoves(ByteBuffer buf, int count) {
+        char[] moves = new char[count];
+        int packed = 0;
+        for (int i = 0; i < count; i++) {
+            if ((i & 3) == 0) {
+                packed = buf.get() & 0xFF;
+            }
+            moves[i] = MOVES.charAt((packed >>> ((i & 3) * 2)) & 3);
+        }
+        return new String(moves);
+    }
+
+    static int checkpointSize(Checkpoint c, TileDiff diff) {
+        int varint = Varints.MAX_LONG_BYTES;
+        return varint * 6 + diff.maxBytes()
+                + c.entityCount * (varint * 4 + 2)
+                + varint + c.timerDue.length * varint * 3;
+    }
+
+    static void putCheckpoint(ByteBuffer buf, Checkpoint c, TileDiff diff) {
+        Varints.putVarLong(buf, c.moveIndex);
+        Varints.putVarLong(buf, c.tick);
+        Varints.putVarLong(buf, c.width);
+        Varints.putVarLong(buf, c.height);
+        diff.write(buf);
+        Varints.putVarLong(buf, c.harvest);
+
+        Varints.putVarLong(buf, c.entityCount);
+        for (int i = 0; i < c.entityCount; i++) {
+            Varints.putVarLong(buf, c.entityX[i]);
+            Varints.putVarLong(buf, c.entityY[i]);
+            buf.put(c.kinds[i]);
+            buf.put(c.states[i]);
+            Varints.putVarLong(buf, c.cooldowns[i]);
+            Varints.putVarLong(buf, c.homes[i]);
+        }
+
+        Varints.putVarLong(buf, c.timerDue.length);
+        for (int i = 0; i < c.timerDue.length; i++) {
+            Varints.putVarLong(buf, c.timerDue[i]);
+            Varints.putVarLong(buf, c.timerKind[i]);
+            Varints.putVarLong(buf, c.timerArg[i]);
+        }
+    }
+
+    static Checkpoint getCheckpoint(ByteBuffer buf, long seed, int generator, byte version) {
+        int moveIndex = Varints.getVarInt(buf);
+        long tick = Varints.getVarLong(buf);
+        int width = Varints.getVarInt(buf);
+        int height = Varints.getVarInt(buf);
+        byte[] tiles;
+        if (version == FULL_TILES_VERSION) {
+            tiles = new byte[width * height];
+            buf.get(tiles);
+        } else {
+            byte[] base = BaseWorlds.tiles(seed, generator);
+            if (base.length != width * height) {
+                throw new IllegalArgumentException("checkpoint is " + width + "x" + height
+                        + " but the seed generates " + base.length + " cells");
+            }
+            tiles = base.clone();
+            TileDiff.read(buf, tiles.length).applyTo(tiles);
+        }
+        int harvest = Varints.getVarInt(buf);
+
+        int count = Varints.getVarInt(buf);
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        byte[] kinds = new byte[count];
+        byte[] states = new byte[count];
+        int[] cooldowns = new int[count];
+        int[] homes = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = Varints.getVarInt(buf);
+            ys[i] = Varints.getVarInt(buf);
+            kinds[i] = buf.get();
+            states[i] = buf.get();
+            cooldowns[i] = Varints.getVarInt(buf);
+            homes[i] = Varints.getVarInt(buf);
+        }
+
+        int timers = Varints.getVarInt(buf);
+        long[] due = new long[timers];
+        int[] kind = new int[timers];
+        int[] arg = new int[timers];
+        for (int i = 0; i < timers; i++) {
+            due[i] = Varints.getVarLong(buf);
+            kind[i] = Varints.getVarInt(buf);
+            arg[i] = Varints.getVarInt(buf);
+        }
+        return new Checkpoint(moveIndex, tick, width, height, tiles, harvest,
+                count, xs, ys, kinds, states, cooldowns, homes, due, kind, arg);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Id of the game this save was written by, see World.getGameId.
+     *
+     * @return the id, 0 for saves written before version 5
+     */
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    public String getMoves() {
+        return moves;
+    }
+
+    public Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Whether this save recorded state hashes. Saves written before
+     * version 3 did not.
+     *
+     * @return true if getStateHash and getHashTrail are meaningful
+     */
+
+    public boolean hasStateHash() {
+        return hasStateHash;
+    }
+
+    public long getStateHash() {
+        return stateHash;
+    }
+
+    public long[] getHashTrail() {
+        return hashTrail;
+    }
+}
@@ -1,33 +1,340 @@
 package core;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public class SaveLoad {
-    private static final String SAVE_FILE = "save.txt";
+    private static final String SAVE_FILE = "save.bin";
+    // saves from before the binary format, read only
+    private static final String LEGACY_SAVE_FILE = "save.txt";
+    private static final String JOURNAL_FILE = "save.journal";
+    private static final String SNAPSHOT_FILE = "save.snap";
+    // the seed's generated grid, which save and snapshot tiles are diffs against
+    private static final String BASE_FILE = "save.base";
+    // every file above lives here, the working directory unless a check points it somewhere else
+    private static Path directory = Paths.get("");
+    // the base file last written, so it isn't written again with every save of the same game
+    private static volatile String baseWritten;
 
-    //this saves the current world state and the seed
-    public static void saveGame(World world, String inputHistory) {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(SAVE_FILE))) {
-            out.writeObject(inputHistory);
+    /**
+     * Everything a save holds, copied off the world so it can be written
+     * later or from another thread while the game carries on. Capturing
+     * only copies; hashing the state and encoding the snapshot happen in
+     * write.
+     */
+    static class Capture {
+        final World world;
+        final long seed;
+        final int generator;
+        final long gameId;
+        // filtered down to moves when written, which is the slow part and needn't hold up the game;
+        // Autosaver fills it in on its writer thread
+        String inputHistory;
+        final Checkpoint checkpoint;
+        // the world as it is now, hashed and encoded by write
+        final Checkpoint state;
+        final long[] hashTrail;
+
+        Capture(World world, String inputHistory) {
+            this(world);
+            this.inputHistory = inputHistory;
+        }
+
+        //everything but the history
+        Capture(World world) {
+            // only read for what's fixed after generation, see WorldSnapshot.encode(World, Checkpoint)
+            this.world = world;
+            this.seed = world.getSeed();
+            this.generator = world.getGenerator();
+            this.gameId = world.getGameId();
+            // checkpoints are never changed once taken, so this one can be shared
+            this.checkpoint = world.getLatestCheckpoint();
+            this.state = Checkpoint.capture(world, world.getMoves());
+            this.hashTrail = world.getHashTrail();
+        }
+    }
+
+    //this saves the seed, every move and the world's latest checkpoint (if it has one),
+    //plus a snapshot of the whole world so loading doesn't have to replay it
+    public static boolean saveGame(World world, String inputHistory) {
+        return write(new Capture(world, inputHistory));
+    }
+
+    //both files are replaced atomically, so a crash part way through leaves the last complete save
+    static boolean write(Capture capture) {
+        try {
+            // snapshot first: a new snapshot next to an old save doesn't match its move count and is ignored
+            writeAtomically(directory.resolve(SNAPSHOT_FILE), WorldSnapshot.encode(capture.world, capture.state));
+        } catch (IOException e) {
+            // the save file alone is still enough to load from
+            System.out.println("Failed to save snapshot: " + e.getMessage());
+        }
+        try {
+            writeAtomically(directory.resolve(SAVE_FILE), SaveFile.encode(capture.seed, capture.generator, capture.gameId,
+                    movesOf(capture.inputHistory), capture.checkpoint, capture.state.stateHash(capture.seed),
+                    capture.hashTrail));
         } catch (IOException e) {
             System.out.println("Failed to save game: " + e.getMessage());
+            return false;
+        }
+        writeBase(capture.seed, capture.generator);
+        return true;
+    }
+
+    //only ever saves time on the next load, so failing to write it doesn't fail the save
+    private static void writeBase(long seed, int generator) {
+        Path path = directory.resolve(BASE_FILE);
+        String key = path.toAbsolutePath() + " " + seed + " " + generator;
+        if (key.equals(baseWritten) && Files.exists(path)) {
+            return;
+        }
+        try {
+            writeAtomically(path, BaseWorlds.encode(seed, generator));
+            baseWritten = key;
+        } catch (IOException e) {
+            System.out.println("Failed to save base world: " + e.getMessage());
+        }
+    }
+
+    //hands the saved base grid to BaseWorlds before anything needs it; without one the world is generated instead
+    private static void loadBase() {
+        Path path = directory.resolve(BASE_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            if (!BaseWorlds.load(ByteBuffer.wrap(Files.readAllBytes(path)))) {
+                System.out.println("Failed to load base world: not a base world file");
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to load base world: " + e.getMessage());
         }
     }
 
-    //this loads the save file using the inputHistory
+    //writes next to path, syncs, then renames over it
+    private static void writeAtomically(Path path, ByteBuffer bytes) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    //this loads the save file and rebuilds the inputHistory from it.
+    //if the game crashed, moves left in the journal are added on after the saved ones, or make up the whole
+    //game when it was a new one that crashed before its first save. either way the save is rewritten to match
+    //and the journal removed, so the next journal starts from a save that really holds everything before it
     public static World loadGame(StringBuilder inputHistory) {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(SAVE_FILE))) {
+        Path path = directory.resolve(SAVE_FILE);
+        MoveJournal.Recovered journal = MoveJournal.recover(journalPath());
+        loadBase();
+        SaveFile save = null;
+        if (Files.exists(path)) {
+            try {
+                save = SaveFile.read(path);
+            } catch (IOException e) {
+                System.out.println("Failed to load game: " + e.getMessage());
+                return null;
+            }
+            if (save == null) {
+                System.out.println("Failed to load game: not a save file");
+                return null;
+            }
+        }
+
+        World world;
+        boolean journalUsed = false;
+        if (journal != null && startsNewGame(journal, save)) {
+            inputHistory.append('N').append(journal.seed).append('S').append(journal.moves);
+            world = replay(journal.seed, journal.generator, journal.moves, null, new long[0]);
+            keepGameId(world, journal.gameId);
+            journalUsed = true;
+        } else if (save != null) {
+            journalUsed = journal != null && continuesSave(journal, save);
+            world = loadSave(save, journalUsed ? journal : null, inputHistory);
+        } else {
+            world = loadLegacyGame(inputHistory);
+        }
+        if (world == null) {
+            return null;
+        }
+        // older files have no game id for the journal to match, so they are saved again with the world's
+        if (journalUsed || save == null || save.getGameId() == 0) {
+            if (!saveGame(world, inputHistory.toString())) {
+                return world;
+            }
+        }
+        if (journal != null) {
+            retireJournal(journalUsed || journal.moves.isEmpty());
+        }
+        return world;
+    }
+
+    //the save's world, from the snapshot when there is one that fits, plus any moves the journal adds
+    private static World loadSave(SaveFile save, MoveJournal.Recovered journal, StringBuilder inputHistory) {
+        String moves = save.getMoves();
+        if (journal != null) {
+            // an autosave can be newer than the journal's start, then only the journal's later moves are new
+            moves = moves + journal.moves.substring(moves.length() - journal.base);
+        }
+        inputHistory.append('N').append(save.getSeed()).append('S').append(moves);
+        World world = loadSnapshot(save.getSeed(), save.getGenerator(), save.getMoves().length());
+        if (world == null) {
+            world = replay(save.getSeed(), save.getGenerator(), moves, save.getCheckpoint(), save.getHashTrail());
+        } else {
+            world.restoreHashTrail(save.getHashTrail());
+            for (int i = world.getMoves(); i < moves.length(); i++) {
+                world.step(moves.charAt(i));
+            }
+        }
+        keepGameId(world, save.getGameId());
+        return world;
+    }
+
+    /**
+     * Starts journaling world's moves. A journal a crash left behind is
+     * loaded and saved first, so starting a new game never throws away
+     * the moves of the one that crashed. If it can't be loaded it is kept
+     * next to the new one as save.journal.old.
+     *
+     * @param world world whose moves are recorded
+     * @return the running journal, or null if it couldn't be started
+     */
+
+    public static MoveJournal startJournal(World world) {
+        Path path = journalPath();
+        if (Files.exists(path)) {
+            loadGame(new StringBuilder());
+            if (Files.exists(path)) {
+                retireJournal(false);
+            }
+        }
+        try {
+            return MoveJournal.start(path, world);
+        } catch (IOException e) {
+            System.out.println("Failed to start journal: " + e.getMessage());
+            return null;
+        }
+    }
+
+    //a journal whose moves are all in the save now is deleted. one that can't be recovered is kept aside, not lost
+    private static void retireJournal(boolean saved) {
+        Path path = journalPath();
+        try {
+            if (saved) {
+                Files.deleteIfExists(path);
+            } else {
+                Path aside = path.resolveSibling(path.getFileName() + ".old");
+                Files.move(path, aside, StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("Kept a journal that couldn't be recovered as " + aside);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to remove journal: " + e.getMessage());
+        }
+    }
+
+    //a journal from the start of a game that has never been saved: there's no save, or the save is from
+    //another game. once a game is saved its save carries its id, so a different id means a newer game
+    private static boolean startsNewGame(MoveJournal.Recovered journal, SaveFile save) {
+        if (journal.base != 0 || journal.moves.isEmpty()) {
+            return false;
+        }
+        return save == null || journal.gameId != 0 && journal.gameId != save.getGameId();
+    }
+
+    //whether the journal's moves carry on from this save. they have to come from the same game, and the journal
+    //has to start at or before the save's last move and hold moves after it
+    private static boolean continuesSave(MoveJournal.Recovered journal, SaveFile save) {
+        int saved = save.getMoves().length();
+        if (journal.seed != save.getSeed() || journal.generator != save.getGenerator()) {
+            return false;
+        }
+        if (journal.gameId == 0) {
+            // an old journal can't tell two games on one seed apart, so only one that starts right at the save counts
+            return journal.base == saved && journal.moves.length() > 0;
+        }
+        return journal.gameId == save.getGameId()
+                && journal.base <= saved && saved < journal.base + journal.moves.length();
+    }
+
+    //files from before game ids leave the world with the new id it was made with
+    private static void keepGameId(World world, long gameId) {
+        if (gameId != 0) {
+            world.setGameId(gameId);
+        }
+    }
+
+    //only trusted when it was written alongside this exact save
+    private static World loadSnapshot(long seed, int generator, int moveCount) {
+        Path path = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            WorldSnapshot snapshot = WorldSnapshot.map(path);
+            if (snapshot.seed() != seed || snapshot.generator() != generator || snapshot.moves() != moveCount) {
+                return null;
+            }
+            return snapshot.toWorld();
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            // a tile id this build doesn't know, or a base grid of the wrong size: the moves still replay
+            System.out.println("Failed to load snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static Path journalPath() {
+        return directory.resolve(JOURNAL_FILE);
+    }
+
+    /**
+     * Points every save file at another directory, so a check can save
+     * and load without touching the player's own save.
+     *
+     * @param dir directory to keep the files in
+     */
+
+    static void useDirectory(Path dir) {
+        directory = dir;
+    }
+
+    private static World loadLegacyGame(StringBuilder inputHistory) {
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(directory.resolve(LEGACY_SAVE_FILE).toFile()))) {
             String savedInput = (String) in.readObject();
             inputHistory.append(savedInput);
-            return reconstructWorldFromInput(savedInput);
+            return reconstructWorldFromInput(savedInput, readCheckpoint(in));
         } catch (IOException | ClassNotFoundException e) {
             System.out.println("Failed to load game: " + e.getMessage());
             return null;
         }
     }
 
+    //older saves stop after the input string, so there's no checkpoint to read
+    private static Checkpoint readCheckpoint(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        try {
+            return (Checkpoint) in.readObject();
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
     //getting the world back to how it was when saved
-    private static World reconstructWorldFromInput(String input) {
+    private static World reconstructWorldFromInput(String input, Checkpoint checkpoint) {
         input = input.toUpperCase();
         if (!input.startsWith("N")) {
             return null;
@@ -38,15 +345,36 @@ public class SaveLoad {
         }
         String seedString = input.substring(1, sIndex);
         long seed = Long.parseLong(seedString);
-        World world = new World(seed);
-        for (int i = sIndex + 1; i < input.length(); i++) {
+        // text saves are older than biomes
+        return replay(seed, World.GRASS_GENERATOR, movesOf(input), checkpoint, new long[0]);
+    }
+
+    //starts from the checkpoint when there is one and only replays the moves after it.
+    //hashTrail is the saved state hashes, needed to keep recording them after a checkpoint
+    static World replay(long seed, int generator, String moves, Checkpoint checkpoint, long[] hashTrail) {
+        World world = new World(seed, generator);
+        int start = 0;
+        if (checkpoint != null) {
+            checkpoint.applyTo(world);
+            world.restoreHashTrail(hashTrail);
+            start = checkpoint.getMoveIndex();
+        }
+        for (int i = start; i < moves.length(); i++) {
+            world.step(moves.charAt(i));
+        }
+        return world;
+    }
+
+    //just the W/A/S/D keys after the seed, dropping the N...S prefix and any :Q
+    static String movesOf(String inputHistory) {
+        String input = inputHistory.toUpperCase();
+        StringBuilder moves = new StringBuilder();
+        for (int i = input.indexOf('S') + 1; i < input.length(); i++) {
             char move = input.charAt(i);
             if ("WASD".indexOf(move) >= 0) {
-                world.Farmer.movePlayer(move);
+                moves.append(move);
             }
         }
-        return world;
+        return moves.toString();
     }
-
-    //
 }
@@ -0,0 +1,149 @@
+package core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Regression check for loading after a crash. Each scenario plays games
+ * into a scratch directory with real saves and a real MoveJournal, then
+ * "crashes" by closing the journal without the clean save and discard
+ * that :Q does, and checks what loadGame brings back against a replay of
+ * the moves that should have survived.
+ *
+ *   autosave   one game, autosaved part way after its journal started,
+ *              then more moves. Everything comes back.
+ *   new game   an old game is saved, then a new game on the same seed
+ *              crashes before its first autosave. The new game comes
+ *              back on its own, not joined to the old save's moves.
+ *   reload     a game crashes, is loaded, played on and crashes again.
+ *              Moves from both sessions come back.
+ *   next game  a game crashes and another game is started without
+ *              loading it. The crashed game is saved before the new
+ *              journal starts, rather than truncated away.
+ *
+ * Usage: java core.SaveRecoveryCheck
+ * Exits with status 1 if any scenario fails.
+ */
+
+public class SaveRecoveryCheck {
+    private static final long SEED = 4242;
+    private static final int MOVES = 300;
+
+    public static void main(String[] args) throws IOException {
+        List<String> failures = new ArrayList<>();
+        check("autosave", SaveRecoveryCheck::autosaveThenCrash, failures);
+        check("new game", SaveRecoveryCheck::newGameThenCrash, failures);
+        check("reload", SaveRecoveryCheck::reloadThenCrash, failures);
+        check("next game", SaveRecoveryCheck::crashThenNextGame, failures);
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * One way of playing up to a crash.
+     */
+    private interface Scenario {
+        /**
+         * Plays and crashes.
+         *
+         * @return the moves a load should bring back
+         * @throws IOException if the journal can't be created
+         */
+        String crash() throws IOException;
+    }
+
+    private static void check(String name, Scenario scenario, List<String> failures) throws IOException {
+        Path dir = Files.createTempDirectory("save-recovery");
+        SaveLoad.useDirectory(dir);
+        try {
+            String expected = scenario.crash();
+            StringBuilder history = new StringBuilder();
+            World loaded = SaveLoad.loadGame(history);
+            String problem = compare(loaded, history, expected);
+            System.out.printf("%-9s %s%n", name, problem == null ? "ok" : "FAILED: " + problem);
+            if (problem != null) {
+                failures.add(name);
+            }
+        } finally {
+            SaveLoad.useDirectory(Path.of(""));
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static String autosaveThenCrash() throws IOException {
+        World world = new World(SEED);
+        MoveJournal journal = SaveLoad.startJournal(world);
+        String first = play(world, MOVES, 1);
+        SaveLoad.saveGame(world, "N" + SEED + "S" + first);
+        String second = play(world, MOVES, 2);
+        journal.close();
+        return first + second;
+    }
+
+    private static String newGameThenCrash() throws IOException {
+        World old = new World(SEED);
+        String oldMoves = play(old, MOVES, 3);
+        SaveLoad.saveGame(old, "N" + SEED + "S" + oldMoves + ":Q");
+
+        World game = new World(SEED);
+        MoveJournal journal = SaveLoad.startJournal(game);
+        String moves = play(game, MOVES * 2, 4);
+        journal.close();
+        return moves;
+    }
+
+    private static String reloadThenCrash() throws IOException {
+        String first = autosaveThenCrash();
+        StringBuilder history = new StringBuilder();
+        World world = SaveLoad.loadGame(history);
+        MoveJournal journal = SaveLoad.startJournal(world);
+        String more = play(world, MOVES, 5);
+        journal.close();
+        return first + more;
+    }
+
+    private static String crashThenNextGame() throws IOException {
+        String crashed = newGameThenCrash();
+        // the next game crashes before its first move, so loading brings back the one before it
+        MoveJournal journal = SaveLoad.startJournal(new World(SEED));
+        journal.close();
+        return crashed;
+    }
+
+    //what went wrong, or null if the load matches a replay of expected
+    private static String compare(World loaded, StringBuilder history, String expected) {
+        if (loaded == null) {
+            return "nothing loaded";
+        }
+        String moves = SaveLoad.movesOf(history.toString());
+        if (!moves.equals(expected)) {
+            return "loaded " + moves.length() + " moves, expected " + expected.length()
+                    + (moves.length() == expected.length() ? " different ones" : "");
+        }
+        long hash = SaveLoad.replay(SEED, World.GENERATOR, expected, null, new long[0]).stateHash();
+        if (loaded.getMoves() != expected.length() || loaded.stateHash() != hash) {
+            return "world after " + loaded.getMoves() + " moves doesn't match a replay";
+        }
+        return null;
+    }
+
+    private static String play(World world, int count, long keySeed) {
+        Random keys = new Random(keySeed);
+        StringBuilder moves = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            char move = "WASD".charAt(keys.nextInt(4));
+            world.step(move);
+            moves.append(move);
+        }
+        return moves.toString();
+    }
+}
@@ -0,0 +1,354 @@
+package core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a server's sessions under a memory budget by writing idle ones
+ * out to disk and bringing them back on their next input.
+ *
+ * Resident sessions are kept in least recently used order. Whenever
+ * their estimated total goes over the budget, the least recently used
+ * ones that no connection is using right now are passivated: the world
+ * is written as a WorldSnapshot (seed, tile diff against the base world,
+ * creatures, harvest and pending timers) next to a text file with the
+ * move history, and dropped from the heap. acquire reads the snapshot
+ * back in, so nothing is replayed.
+ *
+ * Every session handed out by create or acquire is pinned until it is
+ * released, and pinned sessions are never passivated.
+ *
+ * The lock only guards the bookkeeping. Sessions are picked and marked
+ * as moving under it, their files are written or read without it, and
+ * the result is published under it again. acquire waits only when the
+ * session it wants is moving, and other sessions carry on meanwhile.
+ */
+
+public class SessionManager {
+    private final Path dir;
+    private final long budget;
+    private final AtomicLong nextId = new AtomicLong(1);
+    // least recently used first, including sessions still being written out
+    private final LinkedHashMap<Long, GameSession> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Long> passivated = new HashSet<>();
+    // sessions whose files are being written or read right now
+    private final Set<Long> moving = new HashSet<>();
+    // each session's estimate as of its last release, so the total doesn't need a full scan
+    private final Map<Long, Long> accounted = new HashMap<>();
+    private long residentBytes;
+
+    /**
+     * Creates a manager that passivates into dir.
+     *
+     * @param dir directory for passivated sessions, created when first needed
+     * @param budget estimated bytes resident sessions may use, see GameSession.estimatedBytes
+     * @throws IllegalArgumentException if budget is negative
+     */
+
+    public SessionManager(Path dir, long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("memory budget can't be negative: " + budget);
+        }
+        this.dir = dir;
+        this.budget = budget;
+    }
+
+    /**
+     * Starts a new session and pins it.
+     *
+     * @param seed world seed
+     * @return the session, to be released when done with
+     */
+
+    public GameSession create(long seed) {
+        // generating is the slow part and touches nothing shared, so it happens outside the lock
+        GameSession session = new GameSession(nextId.getAndIncrement(), seed);
+        synchronized (this) {
+            session.pins = 1;
+            resident.put(session.getId(), session);
+            account(session);
+        }
+        trim();
+        return session;
+    }
+
+    /**
+     * Pins a session, bringing it back from disk if it was passivated.
+     *
+     * @param id session id
+     * @return the session, to be released when done with
+     * @throws IllegalArgumentException if there is no such session
+     * @throws IllegalStateException if a passivated session can't be read back
+     */
+
+    public GameSession acquire(long id) {
+        GameSession session;
+        synchronized (this) {
+            awaitSettled(id);
+            session = resident.get(id);
+            if (session != null) {
+                session.pins++;
+            } else if (passivated.contains(id)) {
+                moving.add(id);
+            } else {
+                throw new IllegalArgumentException("no session " + id);
+            }
+        }
+        if (session == null) {
+            session = activate(id);
+        }
+        trim();
+        return session;
+    }
+
+    /**
+     * Unpins a session from create or acquire.
+     *
+     * @param session session to release
+     */
+
+    public void release(GameSession session) {
+        synchronized (this) {
+            session.pins--;
+            if (!resident.containsKey(session.getId())) {
+                return;
+            }
+            account(session);
+        }
+        trim();
+    }
+
+    /**
+     * Ends a session, resident or not. A session that is being written
+     * out or read back is cleaned up by whoever is moving it.
+     *
+     * @param id session id
+     */
+
+    public void remove(long id) {
+        boolean files;
+        synchronized (this) {
+            if (resident.remove(id) != null) {
+                unaccount(id);
+            }
+            files = passivated.remove(id) && !moving.contains(id);
+        }
+        if (files) {
+            delete(id);
+        }
+    }
+
+    /**
+     * Ends every session.
+     */
+
+    public void clear() {
+        List<Long> files = new ArrayList<>();
+        synchronized (this) {
+            for (long id : passivated) {
+                if (!moving.contains(id)) {
+                    files.add(id);
+                }
+            }
+            passivated.clear();
+            resident.clear();
+            accounted.clear();
+            residentBytes = 0;
+        }
+        for (long id : files) {
+            delete(id);
+        }
+    }
+
+    /**
+     * Passivates every unpinned session that hasn't had input for idleNanos,
+     * whether or not the budget is exceeded.
+     *
+     * @param idleNanos how long a session must have been idle
+     * @return number of sessions passivated
+     */
+
+    public int passivateIdle(long idleNanos) {
+        long now = System.nanoTime();
+        List<GameSession> idle = new ArrayList<>();
+        synchronized (this) {
+            for (GameSession session : resident.values()) {
+                if (session.pins == 0 && !moving.contains(session.getId())
+                        && now - session.getLastActive() >= idleNanos) {
+                    startMoving(session, idle);
+                }
+            }
+        }
+        int count = 0;
+        for (GameSession session : idle) {
+            if (passivate(session)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Whether id is a session that hasn't been removed, resident or not.
+     *
+     * @param id session id
+     * @return true if the session exists
+     */
+
+    public synchronized boolean contains(long id) {
+        return resident.containsKey(id) || passivated.contains(id);
+    }
+
+    public synchronized int residentCount() {
+        return resident.size();
+    }
+
+    public synchronized int passivatedCount() {
+        return passivated.size();
+    }
+
+    public synchronized long residentBytes() {
+        return residentBytes;
+    }
+
+    private void account(GameSession session) {
+        long bytes = session.estimatedBytes();
+        Long old = accounted.put(session.getId(), bytes);
+        residentBytes += bytes - (old == null ? 0 : old);
+    }
+
+    private void unaccount(long id) {
+        Long bytes = accounted.remove(id);
+        if (bytes != null) {
+            residentBytes -= bytes;
+        }
+    }
+
+    //holding this, waits until id is neither being written out nor read back
+    private void awaitSettled(long id) {
+        while (moving.contains(id)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted waiting for session " + id);
+            }
+        }
+    }
+
+    //holding this, takes a session off the budget and marks it as on its way to disk
+    private void startMoving(GameSession session, List<GameSession> victims) {
+        moving.add(session.getId());
+        unaccount(session.getId());
+        victims.add(session);
+    }
+
+    //never called holding this: picks victims under the lock, then writes them out without it
+    private void trim() {
+        List<GameSession> victims = new ArrayList<>();
+        synchronized (this) {
+            Iterator<GameSession> eldest = resident.values().iterator();
+            while (residentBytes > budget && eldest.hasNext()) {
+                GameSession session = eldest.next();
+                if (session.pins == 0 && !moving.contains(session.getId())) {
+                    startMoving(session, victims);
+                }
+            }
+        }
+        for (GameSession session : victims) {
+            passivate(session);
+        }
+    }
+
+    //writes a session picked by startMoving, then drops it from the heap, or keeps it if the write failed
+    private boolean passivate(GameSession session) {
+        long id = session.getId();
+        boolean written;
+        try {
+            Files.createDirectories(dir);
+            WorldSnapshot.write(snapshotPath(id), session.getWorld(), false);
+            Files.write(historyPath(id), session.getHistory().getBytes(StandardCharsets.US_ASCII));
+            written = true;
+        } catch (IOException e) {
+            System.out.println("Failed to passivate session " + id + ": " + e.getMessage());
+            written = false;
+        }
+        boolean removed;
+        synchronized (this) {
+            moving.remove(id);
+            notifyAll();
+            removed = resident.get(id) != session;
+            if (!removed && written) {
+                resident.remove(id);
+                passivated.add(id);
+            } else if (!removed) {
+                account(session);
+            }
+        }
+        if (removed && written) {
+            delete(id);
+        }
+        return written && !removed;
+    }
+
+    //reads back a session acquire marked as moving, and pins it
+    private GameSession activate(long id) {
+        GameSession session;
+        try {
+            // read rather than mapped, since the file is deleted straight after
+            World world = new World(WorldSnapshot.read(snapshotPath(id)), GameSession.EVENT_CAPACITY);
+            String history = new String(Files.readAllBytes(historyPath(id)), StandardCharsets.US_ASCII);
+            session = new GameSession(id, world, history);
+        } catch (IOException e) {
+            synchronized (this) {
+                moving.remove(id);
+                notifyAll();
+            }
+            throw new IllegalStateException("could not load session " + id + ": " + e.getMessage(), e);
+        }
+        boolean removed;
+        synchronized (this) {
+            moving.remove(id);
+            notifyAll();
+            removed = !passivated.remove(id);
+            if (!removed) {
+                session.pins = 1;
+                resident.put(id, session);
+                account(session);
+            }
+        }
+        delete(id);
+        if (removed) {
+            throw new IllegalArgumentException("no session " + id);
+        }
+        return session;
+    }
+
+    private void delete(long id) {
+        try {
+            Files.deleteIfExists(snapshotPath(id));
+            Files.deleteIfExists(historyPath(id));
+        } catch (IOException e) {
+            System.out.println("Failed to delete passivated session " + id + ": " + e.getMessage());
+        }
+    }
+
+    private Path snapshotPath(long id) {
+        return dir.resolve("session-" + id + ".snap");
+    }
+
+    private Path historyPath(long id) {
+        return dir.resolve("session-" + id + ".moves");
+    }
+}
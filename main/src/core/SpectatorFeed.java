@@ -0,0 +1,287 @@
+package core;
+
+import utils.Varints;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcasts one running game to any number of spectators. A new
+ * spectator first gets a keyframe of the whole drawn grid, then one
+ * delta per tick with just the cells that changed.
+ *
+ * Each tick is diffed and encoded once, into a read-only buffer that
+ * every spectator's queue shares, so the work per tick doesn't grow with
+ * the audience. A spectator that falls MAX_PENDING packets behind has
+ * its queue replaced by a single keyframe of the current tick; one that
+ * still hasn't read anything by the next time that happens is dropped.
+ *
+ * Packets (varints unless noted):
+ *   keyframe   'K', tick, width, height, then width * height tile id bytes
+ *   delta      'D', tick, then a TileDiff against the previous tick
+ */
+
+public class SpectatorFeed {
+    public static final byte KEYFRAME = 'K';
+    public static final byte DELTA = 'D';
+    public static final int MAX_PENDING = 32;
+
+    private final int width;
+    private final int height;
+    private final List<Spectator> spectators = new ArrayList<>();
+    private byte[] frame;
+    private long tick;
+    // keyframe of the current tick, only encoded once somebody needs it
+    private ByteBuffer keyframe;
+    private boolean closed;
+
+    /**
+     * Starts a feed from the world as it is now. Must be called from the
+     * thread that steps the world.
+     *
+     * @param world world to broadcast
+     */
+
+    public SpectatorFeed(World world) {
+        this.width = world.width;
+        this.height = world.height;
+        this.frame = world.composeFrameIds();
+        this.tick = world.getTick();
+    }
+
+    /**
+     * Sends everything that changed since the last publish to every
+     * spectator. Call it from the thread that steps the world, after
+     * each tick.
+     *
+     * @param world the world this feed was made for
+     */
+
+    public synchronized void publish(World world) {
+        byte[] next = world.composeFrameIds();
+        TileDiff diff = TileDiff.between(frame, next);
+        frame = next;
+        tick = world.getTick();
+        keyframe = null;
+        if (spectators.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(1 + Varints.MAX_LONG_BYTES + diff.maxBytes());
+        buf.put(DELTA);
+        Varints.putVarLong(buf, tick);
+        diff.write(buf);
+        buf.flip();
+        ByteBuffer packet = buf.slice().asReadOnlyBuffer();
+        for (int i = spectators.size() - 1; i >= 0; i--) {
+            if (!spectators.get(i).offer(packet, this)) {
+                spectators.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Adds a spectator, whose first packet is a keyframe.
+     *
+     * @return the spectator, to take packets from
+     * @throws IllegalStateException if the feed has been closed
+     */
+
+    public synchronized Spectator subscribe() {
+        if (closed) {
+            throw new IllegalStateException("game is over");
+        }
+        Spectator spectator = new Spectator();
+        spectator.offer(keyframe(), this);
+        spectators.add(spectator);
+        return spectator;
+    }
+
+    public synchronized void unsubscribe(Spectator spectator) {
+        spectators.remove(spectator);
+        spectator.close();
+    }
+
+    /**
+     * Ends the broadcast. Spectators get whatever is still queued and then
+     * the end of the feed.
+     */
+
+    public synchronized void close() {
+        closed = true;
+        for (Spectator spectator : spectators) {
+            spectator.close();
+        }
+        spectators.clear();
+    }
+
+    public synchronized int spectatorCount() {
+        return spectators.size();
+    }
+
+    //called with the feed's lock held
+    private ByteBuffer keyframe() {
+        if (keyframe == null) {
+            ByteBuffer buf = ByteBuffer.allocate(1 + 3 * Varints.MAX_LONG_BYTES + frame.length);
+            buf.put(KEYFRAME);
+            Varints.putVarLong(buf, tick);
+            Varints.putVarLong(buf, width);
+            Varints.putVarLong(buf, height);
+            buf.put(frame);
+            buf.flip();
+            keyframe = buf.slice().asReadOnlyBuffer();
+        }
+        return keyframe;
+    }
+
+    /**
+     * Applies a packet to a spectator's copy of the grid.
+     *
+     * @param packet a packet from Spectator.take
+     * @param frame the grid so far, or null before the first keyframe
+     * @return the grid after the packet, index x * height + y; a new
+     *     array for keyframes, frame itself patched for deltas
+     * @throws IllegalArgumentException if the packet is malformed or a delta arrives before any keyframe
+     */
+
+    public static byte[] apply(ByteBuffer packet, byte[] frame) {
+        ByteBuffer buf = packet.duplicate();
+        byte type = buf.get();
+        Varints.getVarLong(buf);
+        if (type == KEYFRAME) {
+            int w = Varints.getVarInt(buf);
+            int h = Varints.getVarInt(buf);
+            byte[] next = new byte[w * h];
+            buf.get(next);
+            return next;
+        }
+        if (type != DELTA || frame == null) {
+            throw new IllegalArgumentException(frame == null ? "delta before any keyframe" : "unknown packet " + type);
+        }
+        TileDiff.read(buf, frame.length).applyTo(frame);
+        return frame;
+    }
+
+    /**
+     * One spectator's queue of packets. The feed fills it from the game
+     * thread and a writer thread empties it with take.
+     */
+    public static class Spectator {
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        private boolean closed;
+        // whether take has been called since the queue was last replaced by a keyframe
+        private boolean progressed = true;
+        private int coalesced;
+        // only a reader blocked in take needs waking, which saves a wakeup per tick for busy ones
+        private boolean waiting;
+
+        private Spectator() {
+        }
+
+        //returns false once the spectator has been dropped for not keeping up
+        synchronized boolean offer(ByteBuffer packet, SpectatorFeed feed) {
+            if (closed) {
+                return false;
+            }
+            if (pending.size() >= MAX_PENDING) {
+                if (!progressed) {
+                    closed = true;
+                    pending.clear();
+                    notifyAll();
+                    return false;
+                }
+                // the keyframe already includes this tick, so it replaces everything queued
+                pending.clear();
+                pending.add(feed.keyframe());
+                progressed = false;
+                coalesced++;
+            } else {
+                pending.add(packet);
+            }
+            if (waiting) {
+                notifyAll();
+            }
+            return true;
+        }
+
+        /**
+         * Waits for the next packet.
+         *
+         * @return the packet, or null once the feed is over or this spectator was dropped
+         * @throws InterruptedException if interrupted while waiting
+         */
+
+        public synchronized ByteBuffer take() throws InterruptedException {
+            while (pending.isEmpty() && !closed) {
+                waiting = true;
+                try {
+                    wait();
+                } finally {
+                    waiting = false;
+                }
+            }
+            ByteBuffer packet = pending.poll();
+            if (packet == null) {
+                return null;
+            }
+            progressed = true;
+            // each reader gets its own position into the shared bytes
+            return packet.duplicate();
+        }
+
+        /**
+         * Waits up to timeoutMillis for the next packet.
+         *
+         * @param timeoutMillis longest wait, more than 0
+         * @return the packet, or null if none came in time or isOver
+         * @throws InterruptedException if interrupted while waiting
+         */
+
+        public synchronized ByteBuffer take(long timeoutMillis) throws InterruptedException {
+            long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+            while (pending.isEmpty() && !closed) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return null;
+                }
+                waiting = true;
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                } finally {
+                    waiting = false;
+                }
+            }
+            return take();
+        }
+
+        /**
+         * Whether the feed has ended or dropped this spectator and every
+         * packet queued before that has been taken.
+         *
+         * @return true if take will never return another packet
+         */
+
+        public synchronized boolean isOver() {
+            return closed && pending.isEmpty();
+        }
+
+        /**
+         * How many times this spectator fell behind and had its queue
+         * replaced by a keyframe.
+         *
+         * @return coalesce count
+         */
+
+        public synchronized int getCoalesced() {
+            return coalesced;
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package core;
+
+import tileengine.TETile;
+import tileengine.Tileset;
+import utils.RandomUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.random.RandomGenerator;
+
+/**
+ * Seeded gradient noise that paints the ground between rooms with
+ * biomes: water, sand, grass, flowers, trees and mountains.
+ *
+ * Two fields are sampled, elevation and moisture, each a few octaves of
+ * 2D Perlin noise. The map is split into CHUNK x CHUNK blocks; a block's
+ * values for both fields are computed together into one float array,
+ * and every block is kept, so painting the same region again
+ * (regenerating a seed for a replay or a save diff) never evaluates its
+ * noise twice.
+ *
+ * Blocks are painted one after another on the calling thread. A map is
+ * only 15 or so blocks, too little to be worth splitting, and worlds are
+ * generated inside server sessions, whose threads shouldn't have to
+ * compete with generation for the common ForkJoin pool.
+ *
+ * Noise depends only on the seed and the cell, never on World's Random,
+ * so painting biomes doesn't move the rooms and hallways a seed generates.
+ */
+
+public class TerrainNoise {
+    public static final int CHUNK = 16;
+    private static final int OCTAVES = 4;
+    // roughly how many cells wide the largest features are
+    private static final double FEATURE_SIZE = 24.0;
+    private static final int SEEDS_KEPT = 4;
+    private static final Map<Long, TerrainNoise> BY_SEED = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, TerrainNoise> eldest) {
+            return size() > SEEDS_KEPT;
+        }
+    };
+
+    // gradient directions, 8 evenly spaced unit vectors
+    private static final double[] GRAD_X = {1, -1, 0, 0, 0.7071, -0.7071, 0.7071, -0.7071};
+    private static final double[] GRAD_Y = {0, 0, 1, -1, 0.7071, 0.7071, -0.7071, -0.7071};
+
+    private final int[] elevationPerm;
+    private final int[] moisturePerm;
+    // chunk key -> CHUNK * CHUNK elevations followed by CHUNK * CHUNK moistures
+    private final Map<Long, float[]> chunks = new ConcurrentHashMap<>();
+
+    private TerrainNoise(long seed) {
+        this.elevationPerm = permutation(RandomUtils.substream(seed, 0));
+        this.moisturePerm = permutation(RandomUtils.substream(seed, 1));
+    }
+
+    /**
+     * The noise for seed, shared with every other world of that seed.
+     *
+     * @param seed world seed
+     * @return the noise
+     */
+
+    public static TerrainNoise forSeed(long seed) {
+        synchronized (BY_SEED) {
+            return BY_SEED.computeIfAbsent(seed, TerrainNoise::new);
+        }
+    }
+
+    /**
+     * Works out the biome of every cell of a width x height map.
+     *
+     * @param width map width
+     * @param height map height
+     * @return biome tile per cell, [x][y]
+     */
+
+    public TETile[][] paint(int width, int height) {
+        TETile[][] ground = new TETile[width][height];
+        int chunksX = (width + CHUNK - 1) / CHUNK;
+        int chunksY = (height + CHUNK - 1) / CHUNK;
+        for (int cx = 0; cx < chunksX; cx++) {
+            for (int cy = 0; cy < chunksY; cy++) {
+                float[] values = chunk(cx, cy);
+                int x0 = cx * CHUNK;
+                int y0 = cy * CHUNK;
+                for (int dx = 0; dx < CHUNK && x0 + dx < width; dx++) {
+                    for (int dy = 0; dy < CHUNK && y0 + dy < height; dy++) {
+                        int cell = dx * CHUNK + dy;
+                        ground[x0 + dx][y0 + dy] = biome(values[cell], values[CHUNK * CHUNK + cell]);
+                    }
+                }
+            }
+        }
+        return ground;
+    }
+
+    /**
+     * Picks the biome for a cell. Low ground floods, high ground is
+     * mountain, and in between moisture decides.
+     *
+     * @param elevation elevation noise, nearly always between -0.3 and 0.3
+     * @param moisture moisture noise, nearly always between -0.3 and 0.3
+     * @return the biome tile
+     */
+
+    static TETile biome(float elevation, float moisture) {
+        // thresholds leave roughly 6% water, 4% sand, 6% mountain, 12% trees and 6% flowers
+        if (elevation < -0.21f) {
+            return Tileset.WATER;
+        }
+        if (elevation < -0.17f) {
+            return Tileset.SAND;
+        }
+        if (elevation > 0.21f) {
+            return Tileset.MOUNTAIN;
+        }
+        if (moisture > 0.15f) {
+            return Tileset.TREE;
+        }
+        if (moisture < -0.2f) {
+            return Tileset.FLOWER;
+        }
+        return Tileset.GRASS;
+    }
+
+    float[] chunk(int cx, int cy) {
+        long key = ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+        return chunks.computeIfAbsent(key, k -> computeChunk(cx, cy));
+    }
+
+    int cachedChunks() {
+        return chunks.size();
+    }
+
+    //every octave is added into the same array, one pass over the chunk per octave and field
+    private float[] computeChunk(int cx, int cy) {
+        float[] values = new float[2 * CHUNK * CHUNK];
+        double frequency = 1.0 / FEATURE_SIZE;
+        double amplitude = 1.0;
+        double total = 0.0;
+        for (int octave = 0; octave < OCTAVES; octave++) {
+            addOctave(values, 0, elevationPerm, cx, cy, frequency, amplitude);
+            addOctave(values, CHUNK * CHUNK, moisturePerm, cx, cy, frequency, amplitude);
+            total += amplitude;
+            frequency *= 2;
+            amplitude /= 2;
+        }
+        float scale = (float) (1.0 / total);
+        for (int i = 0; i < values.length; i++) {
+            values[i] *= scale;
+        }
+        return values;
+    }
+
+    private static void addOctave(float[] values, int offset, int[] perm, int cx, int cy,
+                                  double frequency, double amplitude) {
+        for (int dx = 0; dx < CHUNK; dx++) {
+            double x = (cx * CHUNK + dx) * frequency;
+            int xi = (int) Math.floor(x);
+            double xf = x - xi;
+            double u = fade(xf);
+            int px0 = perm[xi & 255];
+            int px1 = perm[(xi + 1) & 255];
+            for (int dy = 0; dy < CHUNK; dy++) {
+                double y = (cy * CHUNK + dy) * frequency;
+                int yi = (int) Math.floor(y);
+                double yf = y - yi;
+                double v = fade(yf);
+
+                double n00 = dot(perm[(px0 + yi) & 255], xf, yf);
+                double n10 = dot(perm[(px1 + yi) & 255], xf - 1, yf);
+                double n01 = dot(perm[(px0 + yi + 1) & 255], xf, yf - 1);
+                double n11 = dot(perm[(px1 + yi + 1) & 255], xf - 1, yf - 1);
+                double nx0 = n00 + u * (n10 - n00);
+                double nx1 = n01 + u * (n11 - n01);
+                values[offset + dx * CHUNK + dy] += (float) (amplitude * (nx0 + v * (nx1 - nx0)));
+            }
+        }
+    }
+
+    private static double dot(int hash, double x, double y) {
+        int g = hash & 7;
+        return GRAD_X[g] * x + GRAD_Y[g] * y;
+    }
+
+    private static double fade(double t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+
+    private static int[] permutation(RandomGenerator random) {
+        int[] perm = new int[256];
+        for (int i = 0; i < perm.length; i++) {
+            perm[i] = i;
+        }
+        RandomUtils.shuffle(random, perm);
+        return perm;
+    }
+}
@@ -0,0 +1,135 @@
+package core;
+
+import utils.Varints;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Everything the farmers of a shared world did in one tick: at most one
+ * key per farmer slot, plus any farmers joining. Applying the same
+ * batches in order to a world generated from the same seed always gives
+ * the same world, so a batch is all that has to go over the wire.
+ *
+ * Encoded as (varints unless noted):
+ *   tick       world tick the batch is applied on
+ *   count      number of inputs
+ *   inputs     count times: slot, key (one byte)
+ * Inputs are sorted by slot. A JOIN key adds the farmer for its slot.
+ */
+
+public class TickBatch {
+    public static final char JOIN = 'J';
+
+    private final long tick;
+    private final int[] slots;
+    private final char[] keys;
+
+    /**
+     * Creates a batch from inputs that are already sorted by slot.
+     *
+     * @param tick world tick the batch is applied on
+     * @param slots farmer slot of each input, ascending with no repeats
+     * @param keys W, A, S, D or JOIN for each input
+     * @throws IllegalArgumentException if slots are out of order or a key is invalid
+     */
+
+    public TickBatch(long tick, int[] slots, char[] keys) {
+        if (slots.length != keys.length) {
+            throw new IllegalArgumentException(slots.length + " slots for " + keys.length + " keys");
+        }
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] < 0 || (i > 0 && slots[i] <= slots[i - 1])) {
+                throw new IllegalArgumentException("slots must be ascending: " + Arrays.toString(slots));
+            }
+            if ("WASD".indexOf(keys[i]) < 0 && keys[i] != JOIN) {
+                throw new IllegalArgumentException("not an input: " + keys[i]);
+            }
+        }
+        this.tick = tick;
+        this.slots = slots;
+        this.keys = keys;
+    }
+
+    /**
+     * Applies this batch: joins first, then every key in slot order,
+     * then one world tick.
+     *
+     * @param world world to advance, at exactly this batch's tick
+     * @throws IllegalStateException if the world is at another tick, or a
+     *     join is not for the next free slot
+     */
+
+    public void applyTo(World world) {
+        if (world.getTick() != tick) {
+            throw new IllegalStateException("batch is for tick " + tick + " but world is at " + world.getTick());
+        }
+        for (int i = 0; i < slots.length; i++) {
+            if (keys[i] == JOIN) {
+                if (slots[i] != world.farmerCount()) {
+                    throw new IllegalStateException("join for slot " + slots[i]
+                            + " but the next slot is " + world.farmerCount());
+                }
+                world.addFarmer();
+            }
+        }
+        char[] moves = new char[world.farmerCount()];
+        for (int i = 0; i < slots.length; i++) {
+            if (keys[i] != JOIN) {
+                if (slots[i] >= moves.length) {
+                    throw new IllegalStateException("input for slot " + slots[i] + " which has no farmer");
+                }
+                moves[slots[i]] = keys[i];
+            }
+        }
+        world.step(moves);
+    }
+
+    public byte[] encode() {
+        ByteBuffer buf = ByteBuffer.allocate(2 * Varints.MAX_LONG_BYTES + slots.length * (Varints.MAX_LONG_BYTES + 1));
+        Varints.putVarLong(buf, tick);
+        Varints.putVarLong(buf, slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            Varints.putVarLong(buf, slots[i]);
+            buf.put((byte) keys[i]);
+        }
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /**
+     * Reads a batch written by encode.
+     *
+     * @param packet encoded batch
+     * @return the batch
+     * @throws IllegalArgumentException if the packet is malformed
+     */
+
+    public static TickBatch decode(byte[] packet) {
+        ByteBuffer buf = ByteBuffer.wrap(packet);
+        try {
+            long tick = Varints.getVarLong(buf);
+            int count = Varints.getVarInt(buf);
+            if (count < 0 || count > packet.length) {
+                throw new IllegalArgumentException("bad input count " + count);
+            }
+            int[] slots = new int[count];
+            char[] keys = new char[count];
+            for (int i = 0; i < count; i++) {
+                slots[i] = Varints.getVarInt(buf);
+                keys[i] = (char) buf.get();
+            }
+            return new TickBatch(tick, slots, keys);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("tick packet is truncated");
+        }
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public int size() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,142 @@
+package core;
+
+import utils.Varints;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The cells of a tile grid that differ from the grid the seed generates,
+ * stored as sorted cell indices (x * height + y) with the tile id found
+ * there. Most of a saved world is exactly what generation produces, so
+ * the diff grows with what the player did rather than with the map.
+ *
+ * Encoded as a varint count followed by, for each cell, the gap from the
+ * previous cell index as a varint and then the tile id byte. Gaps are
+ * usually small, so most cells cost two or three bytes.
+ */
+
+public class TileDiff {
+    private final int[] cells;
+    private final byte[] ids;
+
+    private TileDiff(int[] cells, byte[] ids) {
+        this.cells = cells;
+        this.ids = ids;
+    }
+
+    /**
+     * Finds every cell where tiles differs from base.
+     *
+     * @param base tile ids of the generated world
+     * @param tiles tile ids of the current world
+     * @return the differing cells, in index order
+     * @throws IllegalArgumentException if the grids are different sizes
+     */
+
+    public static TileDiff between(byte[] base, byte[] tiles) {
+        if (base.length != tiles.length) {
+            throw new IllegalArgumentException("base has " + base.length
+                    + " cells but tiles has " + tiles.length);
+        }
+        int count = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != base[i]) {
+                count++;
+            }
+        }
+        int[] cells = new int[count];
+        byte[] ids = new byte[count];
+        int n = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != base[i]) {
+                cells[n] = i;
+                ids[n] = tiles[i];
+                n++;
+            }
+        }
+        return new TileDiff(cells, ids);
+    }
+
+    /**
+     * Overwrites the differing cells of tiles, turning a copy of the
+     * base grid into the saved one.
+     *
+     * @param tiles tile ids to patch in place
+     */
+
+    public void applyTo(byte[] tiles) {
+        for (int i = 0; i < cells.length; i++) {
+            tiles[cells[i]] = ids[i];
+        }
+    }
+
+    public int size() {
+        return cells.length;
+    }
+
+    int cell(int i) {
+        return cells[i];
+    }
+
+    byte id(int i) {
+        return ids[i];
+    }
+
+    //worst case, every gap needs a full 5 byte varint
+    int maxBytes() {
+        return Varints.MAX_LONG_BYTES + cells.length * 6;
+    }
+
+    void write(ByteBuffer buf) {
+        Varints.putVarLong(buf, cells.length);
+        int previous = 0;
+        for (int i = 0; i < cells.length; i++) {
+            Varints.putVarLong(buf, cells[i] - previous);
+            buf.put(ids[i]);
+            previous = cells[i];
+        }
+    }
+
+    /**
+     * Reads a diff written by write.
+     *
+     * @param buf buffer positioned at the diff
+     * @param cellCount number of cells in the grid the diff belongs to
+     * @return the decoded diff
+     * @throws IllegalArgumentException if a cell falls outside the grid
+     */
+
+    static TileDiff read(ByteBuffer buf, int cellCount) {
+        int count = Varints.getVarInt(buf);
+        if (count > cellCount) {
+            throw new IllegalArgumentException("diff has " + count + " cells but grid has " + cellCount);
+        }
+        int[] cells = new int[count];
+        byte[] ids = new byte[count];
+        int cell = 0;
+        for (int i = 0; i < count; i++) {
+            cell += Varints.getVarInt(buf);
+            if (cell >= cellCount || (i > 0 && cell <= cells[i - 1])) {
+                throw new IllegalArgumentException("bad diff cell " + cell);
+            }
+            cells[i] = cell;
+            ids[i] = buf.get();
+        }
+        return new TileDiff(cells, ids);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TileDiff)) {
+            return false;
+        }
+        TileDiff other = (TileDiff) o;
+        return Arrays.equals(cells, other.cells) && Arrays.equals(ids, other.ids);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(cells) + Arrays.hashCode(ids);
+    }
+}
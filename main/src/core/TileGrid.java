@@ -0,0 +1,191 @@
+package core;
+
+import tileengine.TETile;
+import tileengine.Tileset;
+
+import java.util.Arrays;
+
+/**
+ * A world's tiles as a copy-on-write overlay on the grid its seed
+ * generates. The base grid is the tile id array BaseWorlds keeps for the
+ * seed and is shared, read only, by every world of that seed. The map is
+ * split into CHUNK x CHUNK chunks, and a chunk gets a private copy only
+ * the first time one of its tiles is set, so a world stores just the
+ * parts of the map its player has actually changed.
+ */
+
+public class TileGrid {
+    public static final int CHUNK = 16;
+    private static final int SHIFT = 4;
+    private static final int MASK = CHUNK - 1;
+
+    private final int width;
+    private final int height;
+    private final int chunksY;
+    // shared with other worlds, never written, index x * height + y
+    private final byte[] base;
+    // private chunks, index cx * chunksY + cy, null while a chunk still matches base
+    private final byte[][] overlay;
+    private int privateChunks;
+
+    /**
+     * Creates a grid that reads everything from base until it is changed.
+     *
+     * @param width map width
+     * @param height map height
+     * @param base shared tile ids, index x * height + y
+     * @throws IllegalArgumentException if base doesn't hold width * height ids
+     */
+
+    public TileGrid(int width, int height, byte[] base) {
+        if (base.length != width * height) {
+            throw new IllegalArgumentException("base grid has " + base.length
+                    + " cells but the map is " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.chunksY = (height + MASK) >> SHIFT;
+        this.base = base;
+        this.overlay = new byte[((width + MASK) >> SHIFT) * chunksY][];
+    }
+
+    public TETile get(int x, int y) {
+        return Tileset.byId(id(x, y));
+    }
+
+    public int id(int x, int y) {
+        byte[] chunk = overlay[(x >> SHIFT) * chunksY + (y >> SHIFT)];
+        return chunk == null ? base[x * height + y] : chunk[((x & MASK) << SHIFT) | (y & MASK)];
+    }
+
+    /**
+     * Replaces the tile at (x, y), copying its chunk out of the base
+     * grid first if this is the chunk's first change.
+     *
+     * @param x x-coordinate
+     * @param y y-coordinate
+     * @param tile new tile
+     */
+
+    public void set(int x, int y, TETile tile) {
+        byte id = (byte) tile.id();
+        int c = (x >> SHIFT) * chunksY + (y >> SHIFT);
+        byte[] chunk = overlay[c];
+        if (chunk == null) {
+            if (base[x * height + y] == id) {
+                return;
+            }
+            chunk = materialize(x >> SHIFT, y >> SHIFT);
+            overlay[c] = chunk;
+            privateChunks++;
+        }
+        chunk[((x & MASK) << SHIFT) | (y & MASK)] = id;
+    }
+
+    //cells past the map edge in the last row or column of chunks are just never read
+    private byte[] materialize(int cx, int cy) {
+        byte[] chunk = new byte[CHUNK * CHUNK];
+        int x0 = cx << SHIFT;
+        int y0 = cy << SHIFT;
+        int rows = Math.min(CHUNK, height - y0);
+        for (int dx = 0; dx < CHUNK && x0 + dx < width; dx++) {
+            System.arraycopy(base, (x0 + dx) * height + y0, chunk, dx << SHIFT, rows);
+        }
+        return chunk;
+    }
+
+    /**
+     * Replaces every tile, e.g. when restoring a checkpoint. Chunks that
+     * end up the same as the base grid go back to being shared.
+     *
+     * @param ids tile ids, index x * height + y
+     * @throws IllegalArgumentException if ids is the wrong size
+     */
+
+    public void load(byte[] ids) {
+        if (ids.length != base.length) {
+            throw new IllegalArgumentException("expected " + base.length + " tile ids, got " + ids.length);
+        }
+        Arrays.fill(overlay, null);
+        privateChunks = 0;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int cell = x * height + y;
+                if (ids[cell] != base[cell]) {
+                    set(x, y, Tileset.byId(ids[cell]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Every tile id, index x * height + y.
+     *
+     * @return a new array of tile ids
+     */
+
+    public byte[] ids() {
+        byte[] ids = base.clone();
+        for (int c = 0; c < overlay.length; c++) {
+            byte[] chunk = overlay[c];
+            if (chunk == null) {
+                continue;
+            }
+            int x0 = (c / chunksY) << SHIFT;
+            int y0 = (c % chunksY) << SHIFT;
+            int rows = Math.min(CHUNK, height - y0);
+            for (int dx = 0; dx < CHUNK && x0 + dx < width; dx++) {
+                System.arraycopy(chunk, dx << SHIFT, ids, (x0 + dx) * height + y0, rows);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Copies every tile into a width x height array.
+     *
+     * @param grid array to fill
+     */
+
+    public void copyInto(TETile[][] grid) {
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                grid[x][y] = get(x, y);
+            }
+        }
+    }
+
+    //the generated map under any changes, never to be written
+    byte[] base() {
+        return base;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * How many chunks this grid has its own copy of.
+     *
+     * @return number of private chunks
+     */
+
+    public int privateChunks() {
+        return privateChunks;
+    }
+
+    /**
+     * Rough number of bytes this grid holds on top of the shared base
+     * grid: the chunk table plus every private chunk.
+     *
+     * @return private bytes
+     */
+
+    public int privateBytes() {
+        return overlay.length * 4 + privateChunks * (CHUNK * CHUNK + 16);
+    }
+}
@@ -0,0 +1,212 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * A hierarchical timer wheel keyed by game tick. Each level has 64 slots;
+ * level 0 holds events due in the next 64 ticks, level 1 the next 64 * 64,
+ * and so on. Advancing one tick only looks at the single level 0 slot that
+ * is due, and every 64 ticks one slot of the next level is spread back
+ * down. That keeps the cost per tick proportional to the events firing,
+ * not to how many are pending or how big the map is.
+ *
+ * Events are just (kind, arg) pairs kept in pooled primitive arrays and
+ * chained together by index, so scheduling does not allocate once the
+ * pool has grown to its working size.
+ */
+
+public class TimerWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final int NIL = -1;
+
+    /**
+     * Callback for events as they come due.
+     */
+    public interface Handler {
+        void onTimer(int kind, int arg);
+    }
+
+    /**
+     * Callback for walking pending events without firing them.
+     */
+    public interface Visitor {
+        void visit(long due, int kind, int arg);
+    }
+
+    private final int[][] heads;
+    private long[] due;
+    private int[] kinds;
+    private int[] args;
+    private int[] next;
+    private int free;
+    private int pending;
+    private long now;
+
+    public TimerWheel() {
+        this.heads = new int[LEVELS][SLOTS];
+        for (int[] level : heads) {
+            Arrays.fill(level, NIL);
+        }
+        int capacity = 64;
+        this.due = new long[capacity];
+        this.kinds = new int[capacity];
+        this.args = new int[capacity];
+        this.next = new int[capacity];
+        this.free = NIL;
+        linkFree(0, capacity);
+    }
+
+    /**
+     * Schedules an event delay ticks from now. Delays shorter than
+     * one tick fire on the next advance.
+     *
+     * @param delay ticks until the event fires
+     * @param kind what kind of event it is, passed back to the handler
+     * @param arg event argument (a cell index, an entity id, ...)
+     */
+
+    public void schedule(long delay, int kind, int arg) {
+        if (free == NIL) {
+            grow();
+        }
+        int event = free;
+        free = next[event];
+        due[event] = now + Math.max(1, delay);
+        kinds[event] = kind;
+        args[event] = arg;
+        insert(event);
+        pending++;
+    }
+
+    /**
+     * Moves time forward one tick and fires everything due.
+     * Handlers may schedule new events while running.
+     *
+     * @param handler receives each due event
+     */
+
+    public void advance(Handler handler) {
+        now++;
+        // every time a level wraps, spread the matching slot of the next level down
+        for (int level = 1; level < LEVELS; level++) {
+            if ((now & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            cascade(level);
+        }
+
+        int slot = (int) (now & MASK);
+        int event = heads[0][slot];
+        heads[0][slot] = NIL;
+        while (event != NIL) {
+            int following = next[event];
+            if (due[event] <= now) {
+                int kind = kinds[event];
+                int arg = args[event];
+                release(event);
+                handler.onTimer(kind, arg);
+            } else {
+                insert(event);
+            }
+            event = following;
+        }
+    }
+
+    /**
+     * Walks every pending event, for saving them. Order is by
+     * wheel slot, not by due time.
+     *
+     * @param visitor receives each pending event
+     */
+
+    public void forEachPending(Visitor visitor) {
+        for (int[] level : heads) {
+            for (int head : level) {
+                for (int event = head; event != NIL; event = next[event]) {
+                    visitor.visit(due[event], kinds[event], args[event]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every pending event and sets the clock, so saved
+     * events can be scheduled again on top.
+     *
+     * @param tick tick to restart the clock from
+     */
+
+    public void reset(long tick) {
+        for (int[] level : heads) {
+            Arrays.fill(level, NIL);
+        }
+        free = NIL;
+        linkFree(0, due.length);
+        pending = 0;
+        now = tick;
+    }
+
+    public long now() {
+        return now;
+    }
+
+    public int pending() {
+        return pending;
+    }
+
+    private void cascade(int level) {
+        int slot = (int) ((now >>> (SLOT_BITS * level)) & MASK);
+        int event = heads[level][slot];
+        heads[level][slot] = NIL;
+        while (event != NIL) {
+            int following = next[event];
+            insert(event);
+            event = following;
+        }
+    }
+
+    //picks the lowest level whose range still covers the event
+    private void insert(int event) {
+        long delta = due[event] - now;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        long when = Math.min(due[event], now + (1L << (SLOT_BITS * LEVELS)) - 1);
+        int slot = (int) ((when >>> (SLOT_BITS * level)) & MASK);
+        next[event] = heads[level][slot];
+        heads[level][slot] = event;
+    }
+
+    private void release(int event) {
+        next[event] = free;
+        free = event;
+        pending--;
+    }
+
+    private void grow() {
+        int old = due.length;
+        int capacity = old * 2;
+        due = Arrays.copyOf(due, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        args = Arrays.copyOf(args, capacity);
+        next = Arrays.copyOf(next, capacity);
+        linkFree(old, capacity);
+    }
+
+    private void linkFree(int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            next[i] = free;
+            free = i;
+        }
+    }
+
+    //the wheel's slot heads and the event columns, see World.heapBytes
+    long heapBytes() {
+        return World.arrayBytes(LEVELS, 4) + LEVELS * World.arrayBytes(SLOTS, 4)
+                + World.arrayBytes(due.length, 8) + 3 * World.arrayBytes(due.length, 4);
+    }
+}
@@ -2,42 +2,207 @@ package core;
 
 import tileengine.TETile;
 import tileengine.Tileset;
+import utils.LatencyHistogram;
 
-import java.awt.Point;
 import java.util.Random;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class World {
+    // timed event kinds
+    public static final int REGROW = 0;
+    public static final int RESPAWN = 1;
+    public static final int DEFAULT_REGROW_DELAY = 150;
+    private static final int RETRY_DELAY = 10;
+    public static final int CHECKPOINT_INTERVAL = 500;
+    public static final int HASH_INTERVAL = 100;
+    // how the map is generated from a seed: 1 is plain grass, 2 paints biomes with TerrainNoise
+    public static final int GRASS_GENERATOR = 1;
+    public static final int GENERATOR = 2;
+    // header of a small object with compressed pointers, for heapBytes
+    static final int OBJECT_BYTES = 16;
 
-    private final TETile[][] myWorld;
+    // only used while generating, after that the tiles live in a grid shared with the seed's other worlds
+    private TETile[][] myWorld;
+    private TileGrid tiles;
     public final int width;
     public final int height;
+    private final long seed;
+    private final int generator;
+    // what each cell was before rooms and hallways went in, only kept while generating
+    private TETile[][] ground;
     private final Random rand;
-    private final List<Room> rooms;
-    public Room townHall;
+    private final RoomTable rooms;
+    // biggest room, where farmers start
+    private int townHall = -1;
     public Player Farmer;
+    // every farmer by slot in the order they joined, Farmer is slot 0
+    private final List<Player> farmers = new ArrayList<>();
+    // farmer entity ids and positions by slot, refilled every tick for the chase pass
+    private int[] farmerIds = new int[0];
+    private int[] farmerXs = new int[0];
+    private int[] farmerYs = new int[0];
+    private final Entities entities;
+    private ChaseMap chaseMap;
+    private final TimerWheel timers;
+    private final EventBus events;
+    private final TimerWheel.Handler timerHandler;
+    private int regrowDelay;
+    private int moves;
+    private Checkpoint latestCheckpoint;
+    // state hash after every HASH_INTERVAL moves, trailLength is -1 once the early ones are unknown
+    private long[] hashTrail = new long[16];
+    private int trailLength;
+    // where Player.movePlayer timings go when someone is watching them, see FrameMetrics
+    private LatencyHistogram moveTimes;
+    // false while the generated map is kept out of BaseWorlds, see registerBase
+    private boolean shareBase = true;
+    // tells this game's save and journal apart from another game's on the same seed, 0 for files from before ids
+    private long gameId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
 
     /**
      * This will create a new world with a 16:10 aspect ratio
      * which I just based on the aspect ratio of a 13in laptop
      * screen.
-     * The world will be completely filled with grass tiles
+     * The ground is painted with biomes before rooms go in
      *
      * @param seed Used to generate all random functionalities
      */
 
     public World(long seed) {
+        this(seed, GENERATOR);
+    }
+
+    /**
+     * Creates a world the way an older version of the game did,
+     * so saves from that version replay onto the same map.
+     *
+     * @param seed Used to generate all random functionalities
+     * @param generator GRASS_GENERATOR or GENERATOR
+     * @throws IllegalArgumentException if generator is not a known version
+     */
+
+    public World(long seed, int generator) {
+        this(seed, generator, EventBus.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a world with a smaller or larger event ring, e.g. for
+     * server sessions that nobody subscribes to.
+     *
+     * @param seed Used to generate all random functionalities
+     * @param generator GRASS_GENERATOR or GENERATOR
+     * @param eventCapacity slots in the world's EventBus
+     */
+
+    World(long seed, int generator, int eventCapacity) {
+        this(seed, generator, eventCapacity, true);
+    }
+
+    /**
+     * Creates a world that may or may not add its map to BaseWorlds.
+     * Worlds that might be thrown away, like seeds guessed while the
+     * player is typing, shouldn't push real ones out of the cache; they
+     * keep their map to themselves until registerBase is called.
+     *
+     * @param seed Used to generate all random functionalities
+     * @param generator GRASS_GENERATOR or GENERATOR
+     * @param eventCapacity slots in the world's EventBus
+     * @param shareBase whether to register the generated map right away
+     */
+
+    World(long seed, int generator, int eventCapacity, boolean shareBase) {
+        if (generator < GRASS_GENERATOR || generator > GENERATOR) {
+            throw new IllegalArgumentException("unknown world generator: " + generator);
+        }
         // We will use the aspect ratio of 16:10 for our world size
+        this.seed = seed;
+        this.generator = generator;
         this.rand = new Random(seed);
         this.width = 80;//(rand.nextInt(9) + 5) * 20;
         this.height = (int) Math.round(width * (10.0/16.0));
         this.myWorld = new TETile[this.width][this.height];
-        this.rooms = new ArrayList<>();
+        this.ground = generator == GRASS_GENERATOR ? grass(width, height)
+                : TerrainNoise.forSeed(seed).paint(width, height);
+        this.rooms = new RoomTable();
+        this.entities = new Entities(this);
+        this.timers = new TimerWheel();
+        this.events = new EventBus(eventCapacity);
+        this.timerHandler = this::onTimer;
+        this.regrowDelay = DEFAULT_REGROW_DELAY;
+        this.shareBase = shareBase;
 
         generateWorld(this.rand);
     }
 
+    /**
+     * Restores a world from a snapshot instead of replaying it.
+     * The random generator is only used during generation, so it
+     * is just recreated from the seed.
+     *
+     * @param snapshot mapped snapshot to copy the world out of; every
+     *     section is copied up front, nothing is read from it later
+     */
+
+    World(WorldSnapshot snapshot) {
+        this(snapshot, EventBus.DEFAULT_CAPACITY);
+    }
+
+    World(WorldSnapshot snapshot, int eventCapacity) {
+        this.seed = snapshot.seed();
+        this.generator = snapshot.generator();
+        this.ground = null;
+        this.rand = new Random(seed);
+        this.width = snapshot.width();
+        this.height = snapshot.height();
+        this.tiles = new TileGrid(width, height, BaseWorlds.tiles(seed, generator));
+        this.rooms = new RoomTable();
+        this.entities = new Entities(this);
+        this.timers = new TimerWheel();
+        this.events = new EventBus(eventCapacity);
+        this.timerHandler = this::onTimer;
+        this.regrowDelay = DEFAULT_REGROW_DELAY;
+
+        tiles.load(snapshot.tiles());
+        for (int i = 0; i < snapshot.roomCount(); i++) {
+            rooms.add(snapshot.roomX(i), snapshot.roomY(i), snapshot.roomSize(i));
+        }
+        townHall = snapshot.townHall();
+
+        int n = snapshot.entityCount();
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        byte[] kinds = new byte[n];
+        byte[] states = new byte[n];
+        int[] cooldowns = new int[n];
+        int[] homes = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = snapshot.entityX(i);
+            ys[i] = snapshot.entityY(i);
+            kinds[i] = snapshot.entityKind(i);
+            states[i] = snapshot.entityState(i);
+            cooldowns[i] = snapshot.entityCooldown(i);
+            homes[i] = snapshot.entityHome(i);
+        }
+        entities.load(n, xs, ys, kinds, states, cooldowns, homes);
+        Farmer = new Player(this, snapshot.farmer());
+        Farmer.setHarvest(snapshot.harvest());
+        addSlot(Farmer);
+
+        timers.reset(snapshot.tick());
+        for (int i = 0; i < snapshot.timerCount(); i++) {
+            timers.schedule(snapshot.timerDue(i) - snapshot.tick(), snapshot.timerKind(i), snapshot.timerArg(i));
+        }
+
+        moves = snapshot.moves();
+        // the next save still needs a checkpoint to start replays from
+        latestCheckpoint = Checkpoint.capture(this, moves);
+        trailLength = -1;
+        chaseMap = new ChaseMap(this);
+        chaseMap.track(Farmer.getX(), Farmer.getY());
+    }
+
     /**
      * We will use generateWorld to place our rooms and hallways randomly.
      *
@@ -46,10 +211,10 @@ public class World {
 
     public void generateWorld(Random rand) {
 
-        // Makes entire world grass
+        // Lays down the ground, rooms and hallways go on top
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
-                myWorld[x][y] = Tileset.GRASS;
+                myWorld[x][y] = ground[x][y];
             }
         }
 
@@ -61,9 +226,8 @@ public class World {
             // Random room size between 4 and maxSize
             int roomSize = rand.nextInt(maxSize - 3) + 4;
             try {
-                Room newRoom = new Room(this, roomSize, rand);
-                rooms.add(newRoom); //needed to add this to save the new rooms
-                if (townHall == null || newRoom.size() > townHall.size()) {
+                int newRoom = rooms.place(this, roomSize, rand);
+                if (townHall < 0 || rooms.size(newRoom) > rooms.size(townHall)) {
                     this.townHall = newRoom;
                 }
 
@@ -76,40 +240,403 @@ public class World {
         // Hallway generation
         connectRooms();
 
+        // the map is done, so it can be shared with every other world of this seed
+        byte[] generated = BaseWorlds.idsOf(myWorld);
+        tiles = new TileGrid(width, height, shareBase ? BaseWorlds.share(seed, generator, generated) : generated);
+        myWorld = null;
+        ground = null;
+
         // Generate Farmer
-        Farmer = new Player(this, townHall.getCenter());
+        Farmer = new Player(this, rooms.centerX(townHall), rooms.centerY(townHall));
+        addSlot(Farmer);
+
+        // Tiger starts in the room furthest from the town hall
+        int lair = -1;
+        long lairDistance = 0;
+        for (int room = 0; room < rooms.count(); room++) {
+            long distance = centerDistance(room, townHall);
+            if (distance > lairDistance) {
+                lairDistance = distance;
+                lair = room;
+            }
+        }
+        if (lair >= 0) {
+            entities.spawn(Entities.TIGER, rooms.centerX(lair), rooms.centerY(lair));
+        }
+
+        chaseMap = new ChaseMap(this);
+        chaseMap.track(Farmer.getX(), Farmer.getY());
+    }
+
+    /**
+     * Applies one keystroke for the farmer and then advances
+     * everything else in the world by one tick.
+     * Both live input and save replays go through here so
+     * they stay in sync.
+     *
+     * @param key movement key (W, A, S or D)
+     */
+
+    public void step(char key) {
+        events.publish(GameEvent.INPUT, Farmer.getId(), Farmer.getX(), Farmer.getY(), key, getTick());
+        if (moveTimes != null) {
+            long start = System.nanoTime();
+            Farmer.movePlayer(key);
+            moveTimes.recordSince(start);
+        } else {
+            Farmer.movePlayer(key);
+        }
+        tick();
+        stepped();
+    }
+
+    /**
+     * Advances the world one tick with input from every farmer in a
+     * shared world. Keys are applied in slot order, so every machine
+     * running the same inputs ends up with the same world.
+     *
+     * @param keys movement key per farmer slot, 0 for no input this tick
+     * @throws IllegalArgumentException if there are more keys than farmers
+     */
+
+    public void step(char[] keys) {
+        if (keys.length > farmers.size()) {
+            throw new IllegalArgumentException(keys.length + " keys for " + farmers.size() + " farmers");
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                Player farmer = farmers.get(slot);
+                events.publish(GameEvent.INPUT, farmer.getId(), farmer.getX(), farmer.getY(), keys[slot], getTick());
+                farmer.movePlayer(keys[slot]);
+            }
+        }
+        tick();
+        stepped();
+    }
+
+    private void stepped() {
+        moves++;
+        // checkpoints only know about one farmer, shared worlds are rebuilt from their inputs instead
+        if (moves % CHECKPOINT_INTERVAL == 0 && farmers.size() == 1) {
+            latestCheckpoint = Checkpoint.capture(this, moves);
+        }
+        if (moves % HASH_INTERVAL == 0 && trailLength >= 0) {
+            if (trailLength == hashTrail.length) {
+                hashTrail = Arrays.copyOf(hashTrail, trailLength * 2);
+            }
+            hashTrail[trailLength++] = stateHash();
+        }
+    }
+
+    //tigers all read the same distance field so it's updated once per tick
+    private void tick() {
+        timers.advance(timerHandler);
+        for (int slot = 0; slot < farmerIds.length; slot++) {
+            farmerXs[slot] = entities.x(farmerIds[slot]);
+            farmerYs[slot] = entities.y(farmerIds[slot]);
+        }
+        chaseMap.trackAll(farmerXs, farmerYs, farmerIds.length);
+        entities.update(chaseMap, farmerIds, seed, getTick());
+    }
+
+    /**
+     * Adds another farmer to the world, on the free tile closest to the
+     * town hall's center. Its slot is the number of farmers before it.
+     * Saves, checkpoints and snapshots only cover the first farmer, so a
+     * shared world is rebuilt from its seed and inputs (see TickBatch).
+     *
+     * @return the new farmer
+     * @throws IllegalStateException if no walkable tile is free
+     */
+
+    public Player addFarmer() {
+        int cell = freeCellNear(rooms.centerX(townHall), rooms.centerY(townHall));
+        if (cell < 0) {
+            throw new IllegalStateException("no free tile for another farmer");
+        }
+        Player farmer = new Player(this, cell / height, cell % height);
+        addSlot(farmer);
+        latestCheckpoint = null;
+        return farmer;
+    }
+
+    private void addSlot(Player farmer) {
+        farmers.add(farmer);
+        int n = farmers.size();
+        farmerIds = Arrays.copyOf(farmerIds, n);
+        farmerXs = new int[n];
+        farmerYs = new int[n];
+        farmerIds[n - 1] = farmer.getId();
+    }
+
+    //breadth first in a fixed neighbour order, so every replay picks the same tile
+    private int freeCellNear(int x, int y) {
+        boolean[] seen = new boolean[width * height];
+        int[] queue = new int[width * height];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = x * height + y;
+        seen[x * height + y] = true;
+        while (head < tail) {
+            int cell = queue[head++];
+            int cx = cell / height;
+            int cy = cell % height;
+            if (entities.occupant(cx, cy) == Entities.NONE) {
+                return cell;
+            }
+            for (int[] dir : Entities.DIRECTIONS) {
+                int nx = cx + dir[0];
+                int ny = cy + dir[1];
+                if (isWalkable(nx, ny) && !seen[nx * height + ny]) {
+                    seen[nx * height + ny] = true;
+                    queue[tail++] = nx * height + ny;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A farmer by slot, 0 being the one every world starts with.
+     *
+     * @param slot farmer slot
+     * @return the farmer
+     * @throws IndexOutOfBoundsException if there is no such slot
+     */
+
+    public Player getFarmer(int slot) {
+        return farmers.get(slot);
+    }
+
+    public int farmerCount() {
+        return farmers.size();
+    }
+
+    /**
+     * Harvests the grass at (x,y), leaving floor behind,
+     * and schedules it to grow back after the regrow delay.
+     *
+     * @param x x-coordinate of the harvested tile
+     * @param y y-coordinate of the harvested tile
+     */
+
+    public void harvest(int x, int y) {
+        setTile(x, y, Tileset.FLOOR);
+        timers.schedule(regrowDelay, REGROW, x * height + y);
+    }
+
+    /**
+     * Schedules a timed world event.
+     *
+     * @param delay ticks from now until the event fires
+     * @param kind REGROW (arg is a cell index) or RESPAWN (arg is an entity id)
+     * @param arg event argument
+     */
+
+    public void schedule(long delay, int kind, int arg) {
+        timers.schedule(delay, kind, arg);
+    }
+
+    //anything that can't happen yet (someone standing in the way) tries again shortly
+    private void onTimer(int kind, int arg) {
+        if (kind == REGROW) {
+            int x = arg / height;
+            int y = arg % height;
+            if (entities.occupant(x, y) != Entities.NONE) {
+                timers.schedule(RETRY_DELAY, REGROW, arg);
+            } else if (tiles.get(x, y) == Tileset.FLOOR) {
+                setTile(x, y, Tileset.GRASS);
+            }
+        } else if (kind == RESPAWN) {
+            if (!entities.respawn(arg)) {
+                timers.schedule(RETRY_DELAY, RESPAWN, arg);
+            }
+        }
+    }
+
+    //called once a checkpoint has been copied back into this world
+    void restored(Checkpoint checkpoint) {
+        moves = checkpoint.moveIndex;
+        latestCheckpoint = checkpoint;
+        trailLength = -1;
+        Farmer.setHarvest(checkpoint.harvest);
+        chaseMap.markDirty();
+        chaseMap.track(Farmer.getX(), Farmer.getY());
+    }
+
+    /**
+     * Latest periodic checkpoint, taken every CHECKPOINT_INTERVAL moves.
+     *
+     * @return the checkpoint, or null if there have not been enough moves yet
+     */
+
+    public Checkpoint getLatestCheckpoint() {
+        return latestCheckpoint;
+    }
+
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * Hashes everything that replaying moves has to reproduce: tiles,
+     * creatures, harvest, the clock and pending timed events. Two worlds
+     * with the same hash are, for save purposes, the same world.
+     *
+     * @return 64-bit hash of the current state
+     */
+
+    public long stateHash() {
+        long h = mix(seed ^ mix(moves));
+        h = mix(h ^ getTick());
+        h = mix(h ^ Farmer.getHarvest());
+        // a lone farmer hashes the same as before shared worlds existed
+        for (int slot = 1; slot < farmers.size(); slot++) {
+            h = mix(h ^ farmers.get(slot).getHarvest());
+        }
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                h = h * 31 + tiles.id(x, y);
+            }
+        }
+        h = mix(h ^ entities.hash());
+        // the wheel's walk order depends on insertion order, so timers are summed
+        long[] timerSum = new long[1];
+        timers.forEachPending((due, kind, arg) -> timerSum[0] += timerHash(due, kind, arg));
+        return mix(h ^ timerSum[0]);
+    }
+
+    //one pending timer's share of stateHash, also used by Checkpoint.stateHash
+    static long timerHash(long due, int kind, int arg) {
+        return mix(due * 0x9E3779B97F4A7C15L + kind * 31L + arg);
+    }
+
+    /**
+     * State hashes taken every HASH_INTERVAL moves, oldest first.
+     *
+     * @return the hashes, or an empty array if this world was restored
+     *     without the hashes from before its checkpoint
+     */
+
+    public long[] getHashTrail() {
+        return trailLength < 0 ? new long[0] : Arrays.copyOf(hashTrail, trailLength);
+    }
+
+    //after restoring a checkpoint, picks the saved hashes back up from before it
+    void restoreHashTrail(long[] saved) {
+        int known = moves / HASH_INTERVAL;
+        if (saved.length < known) {
+            trailLength = -1;
+            return;
+        }
+        hashTrail = Arrays.copyOf(saved, Math.max(known, 16));
+        trailLength = known;
+    }
+
+    //splitmix64 finalizer
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Adds this world's generated map to BaseWorlds, for a world that was
+     * made without sharing it and turned out to be kept.
+     */
+
+    void registerBase() {
+        if (!shareBase) {
+            BaseWorlds.share(seed, generator, tiles.base());
+            shareBase = true;
+        }
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    /**
+     * Makes this world carry on the game a save or journal was written
+     * by, instead of the new id every world starts with.
+     *
+     * @param gameId id read back from the save or journal
+     */
+
+    public void setGameId(long gameId) {
+        this.gameId = gameId;
+    }
+
+    TimerWheel getTimers() {
+        return timers;
+    }
+
+    public void setRegrowDelay(int ticks) {
+        this.regrowDelay = ticks;
+    }
+
+    public long getTick() {
+        return timers.now();
+    }
+
+    /**
+     * Draws the terrain with every creature on top of it into frame.
+     * The terrain itself is never overwritten by creatures.
+     *
+     * @param frame array the same size as the world to draw into
+     */
+
+    public void composeFrame(TETile[][] frame) {
+        entities.compose(tiles, frame);
+    }
+
+    /**
+     * Same as composeFrame, as tile ids instead of tiles.
+     *
+     * @return tile ids with creatures drawn in, index x * height + y
+     */
+
+    public byte[] composeFrameIds() {
+        byte[] frame = tiles.ids();
+        entities.composeIds(frame);
+        return frame;
     }
 
 
     private void connectRooms() {
-        if (rooms.size() < 2) {
+        if (rooms.count() < 2) {
             return;
         }
 
         // Creates a new Hallway
         Hallway hallwayGenerator = new Hallway(this, rand);
-        boolean[][] connected = new boolean[rooms.size()][rooms.size()];
+        boolean[][] connected = new boolean[rooms.count()][rooms.count()];
         List<Integer> connectedIndices = new ArrayList<>();
         List<Integer> unconnectedIndices = new ArrayList<>();
 
         connectedIndices.add(0);
-        for (int i = 1; i < rooms.size(); i++) {
+        for (int i = 1; i < rooms.count(); i++) {
             unconnectedIndices.add(i);
         }
         //min spanning tree, keep going until no unconnected indices left
         while (!unconnectedIndices.isEmpty()) {
             int bestConnectedIdx = -1;
             int bestUnconnectedIdx = -1;
-            double minDistance = Double.MAX_VALUE;
+            long minDistance = Long.MAX_VALUE;
 
             for (int connectedIdx : connectedIndices) {
-                Room connectedRoom = rooms.get(connectedIdx);
-
                 for (int i = 0; i < unconnectedIndices.size(); i++) {
                     int unconnectedIdx = unconnectedIndices.get(i);
-                    Room unconnectedRoom = rooms.get(unconnectedIdx);
 
-                    double distance = getDistance(connectedRoom.getCenter(), unconnectedRoom.getCenter());
+                    long distance = centerDistance(connectedIdx, unconnectedIdx);
                     if (distance < minDistance) {
                         minDistance = distance;
                         bestConnectedIdx = connectedIdx;
@@ -119,10 +646,7 @@ public class World {
             }
 
             if (bestConnectedIdx != -1 && bestUnconnectedIdx != -1) {
-                Room sourceRoom = rooms.get(bestConnectedIdx);
-                Room targetRoom = rooms.get(bestUnconnectedIdx);
-
-                boolean success = connectRoomPair(sourceRoom, targetRoom, hallwayGenerator);
+                boolean success = connectRoomPair(bestConnectedIdx, bestUnconnectedIdx, hallwayGenerator);
 
                 if (success) {
                     connected[bestConnectedIdx][bestUnconnectedIdx] = true;
@@ -131,20 +655,20 @@ public class World {
                     unconnectedIndices.remove(Integer.valueOf(bestUnconnectedIdx));
                 } else {
                     //if cannot connect, force a connection by brute forcing (trying every possible wall tile from source)
-                    List<Point> sourceWalls = new ArrayList<>(sourceRoom.getEdgeWallTiles());
-                    List<Point> targetWalls = new ArrayList<>(targetRoom.getEdgeWallTiles());
+                    RoomTable.Perimeter sourceWalls = rooms.perimeter(bestConnectedIdx);
 
                     boolean forcedConnection = false;
-                    for (Point sourceWall : sourceWalls) {
-                        for (Point targetWall : targetWalls) {
-                            if (hallwayGenerator.createHallway(sourceWall, targetWall, rooms)) {
+                    while (!forcedConnection && sourceWalls.next()) {
+                        RoomTable.Perimeter targetWalls = rooms.perimeter(bestUnconnectedIdx);
+                        while (targetWalls.next()) {
+                            if (hallwayGenerator.createHallway(sourceWalls.x(), sourceWalls.y(),
+                                    targetWalls.x(), targetWalls.y())) {
                                 connected[bestConnectedIdx][bestUnconnectedIdx] = true;
                                 connected[bestUnconnectedIdx][bestConnectedIdx] = true;
                                 forcedConnection = true;
                                 break;
                             }
                         }
-                        if (forcedConnection) break;
                     }
                     //break infinite loops
                     connectedIndices.add(bestUnconnectedIdx);
@@ -152,19 +676,16 @@ public class World {
                 }
             }
         }
-        int additionalConnections = rooms.size() / 4 + rand.nextInt(rooms.size() / 4);
+        int additionalConnections = rooms.count() / 4 + rand.nextInt(rooms.count() / 4);
 
         for (int i = 0; i < additionalConnections; i++) {
             int attempts = 0;
             while (attempts < 20) {  // Limit attempts to prevent infinite loop
-                int room1Idx = rand.nextInt(rooms.size());
-                int room2Idx = rand.nextInt(rooms.size());
+                int room1Idx = rand.nextInt(rooms.count());
+                int room2Idx = rand.nextInt(rooms.count());
 
                 if (room1Idx != room2Idx && !connected[room1Idx][room2Idx]) {
-                    Room room1 = rooms.get(room1Idx);
-                    Room room2 = rooms.get(room2Idx);
-
-                    if (connectRoomPair(room1, room2, hallwayGenerator)) {
+                    if (connectRoomPair(room1Idx, room2Idx, hallwayGenerator)) {
                         connected[room1Idx][room2Idx] = true;
                         connected[room2Idx][room1Idx] = true;
                         break;
@@ -177,24 +698,30 @@ public class World {
     }
 
     //connects two rooms. as seen before, we iterate through all the rooms to ensure connectivity
-    private boolean connectRoomPair(Room sourceRoom, Room targetRoom, Hallway hallwayGenerator) {
-        List<Point> sourceWalls = new ArrayList<>(sourceRoom.getEdgeWallTiles());
-        final Point targetCenter = targetRoom.getCenter();
-        Collections.sort(sourceWalls, (p1, p2) -> {
-            double d1 = getDistance(p1, targetCenter);
-            double d2 = getDistance(p2, targetCenter);
-            return Double.compare(d1, d2);
-        });
-        int attempts = Math.min(5, sourceWalls.size());
+    //the 5 walls nearest the target's center go first, then 10 random ones
+    private boolean connectRoomPair(int sourceRoom, int targetRoom, Hallway hallwayGenerator) {
+        int targetX = rooms.centerX(targetRoom);
+        int targetY = rooms.centerY(targetRoom);
+        int[] nearest = new int[5];
+        int attempts = rooms.nearest(sourceRoom, targetX, targetY, nearest);
         for (int i = 0; i < attempts; i++) {
-            if (hallwayGenerator.createHallway(sourceWalls.get(i), targetCenter, rooms)) {
+            if (hallwayGenerator.createHallway(rooms.perimeterX(sourceRoom, nearest[i]),
+                    rooms.perimeterY(sourceRoom, nearest[i]), targetX, targetY)) {
                 return true;
             }
         }
-        Collections.shuffle(sourceWalls, rand);
-        attempts = Math.min(10, sourceWalls.size());
+        // shuffles the nearest first order exactly like Collections.shuffle did, so seeds keep their maps
+        int[] walls = rooms.byDistance(sourceRoom, targetX, targetY);
+        for (int i = walls.length; i > 1; i--) {
+            int j = rand.nextInt(i);
+            int swap = walls[i - 1];
+            walls[i - 1] = walls[j];
+            walls[j] = swap;
+        }
+        attempts = Math.min(10, walls.length);
         for (int i = 0; i < attempts; i++) {
-            if (hallwayGenerator.createHallway(sourceWalls.get(i), targetCenter, rooms)) {
+            if (hallwayGenerator.createHallway(rooms.perimeterX(sourceRoom, walls[i]),
+                    rooms.perimeterY(sourceRoom, walls[i]), targetX, targetY)) {
                 return true;
             }
         }
@@ -221,7 +748,7 @@ public class World {
                             boolean extended = tryExtendDeadEnd(x, y);
 
                             if (!extended) {
-                                myWorld[x][y] = Tileset.GRASS;
+                                myWorld[x][y] = ground[x][y];
                             }
                             foundDeadEnd = true;
                         }
@@ -292,18 +819,21 @@ public class World {
             int nx = x + dir[0];
             int ny = y + dir[1];
 
-            if (isInBounds(nx, ny) && myWorld[nx][ny] == Tileset.GRASS) {
+            if (isInBounds(nx, ny) && isGround(myWorld[nx][ny])) {
                 myWorld[nx][ny] = Tileset.WALL;
             }
         }
     }
 
     private boolean isInBounds(int x, int y) {
-        return x >= 0 && x < myWorld.length && y >= 0 && y < myWorld[0].length;
+        return x >= 0 && x < width && y >= 0 && y < height;
     }
 
-    private double getDistance(Point p1, Point p2) {
-        return Math.sqrt(Math.pow(p1.getX() - p2.getX(), 2) + Math.pow(p1.getY() - p2.getY(), 2));
+    //squared, which orders rooms exactly like the straight line distance without the square root
+    private long centerDistance(int room1, int room2) {
+        long dx = rooms.centerX(room1) - rooms.centerX(room2);
+        long dy = rooms.centerY(room1) - rooms.centerY(room2);
+        return dx * dx + dy * dy;
     }
 
     //basically goes back to all of the floor tiles and makes sure that it is surrounded by another floor or a wall.
@@ -316,7 +846,7 @@ public class World {
                             if (Math.abs(dx) + Math.abs(dy) == 1) {
                                 int nx = x + dx;
                                 int ny = y + dy;
-                                if (myWorld[nx][ny] == Tileset.GRASS) {
+                                if (isGround(myWorld[nx][ny])) {
                                     myWorld[nx][ny] = Tileset.WALL;
                                 }
                             }
@@ -343,27 +873,64 @@ public class World {
             return false;
         }
 
-        return myWorld[x][y].equals(Tileset.GRASS);
+        return tile(x, y).equals(Tileset.GRASS);
+    }
+
+    /**
+     * Checks if the tile at (x,y) is open ground (grass or any biome)
+     * that rooms and hallways can be built on.
+     *
+     * @param x x-coordinate to check.
+     * @param y y-coordinate to check.
+     * @return true if tile is ground and within bounds
+     */
+
+    public boolean isGround(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return false;
+        }
+        return isGround(tile(x, y));
+    }
+
+    /**
+     * Checks if a tile is one generation treats like grass: grass
+     * itself or one of the biomes TerrainNoise paints.
+     *
+     * @param tile tile to check
+     * @return true for ground tiles
+     */
+
+    public static boolean isGround(TETile tile) {
+        return tile == Tileset.GRASS || tile == Tileset.WATER || tile == Tileset.SAND
+                || tile == Tileset.MOUNTAIN || tile == Tileset.TREE || tile == Tileset.FLOWER;
+    }
+
+    private static TETile[][] grass(int width, int height) {
+        TETile[][] ground = new TETile[width][height];
+        for (TETile[] column : ground) {
+            Arrays.fill(column, Tileset.GRASS);
+        }
+        return ground;
     }
 
     /**
      * Checks a straight line of tiles or diagonal by specifying
      * direction with dx and dy.
-     * Verifies that the length of tiles are all grass.
+     * Verifies that the length of tiles are all ground.
      *
      * @param xProp Propagation x-coordinate.
      * @param yProp Propagation y-coordinate.
      * @param length Number of tiles to check in the given direction.
      * @param dx step in the x-direction. Usually, 1 (Right) or 0.
      * @param dy step in the y-direction. Usually, 1 (Up) or 0.
-     * @return The final x or y coordinate of the line if valid or -1 if any tile is not grass.
+     * @return The final x or y coordinate of the line if valid or -1 if any tile is not ground.
      */
 
     public int boundCheckDirection(int xProp, int yProp, int length, int dx, int dy) {
         for (int i = 0; i < length; i++) {
             int x = xProp + (dx * i);
             int y = yProp + (dy * i);
-            if (!isGrass(x, y)) {
+            if (!isGround(x, y)) {
                 return -1;
             }
         }
@@ -381,7 +948,7 @@ public class World {
     /**
      * This is the unbounded version. Starts from (xProp, yProp) and
      * walks in the given direction until hitting
-     * a non-grass tile or edge of the map.
+     * a non-ground tile or edge of the map.
      *
      * @param xProp Propagation x-coordinate.
      * @param yProp Propagation y-coordinate.
@@ -395,13 +962,13 @@ public class World {
         int x = xProp;
         int y = yProp;
 
-        /* Stops when a tile is either not grass or if the next
+        /* Stops when a tile is either not ground or if the next
            step is off the map */
-        while (isGrass(x,y)) {
+        while (isGround(x,y)) {
             steps++;
             x += dx;
             y += dy;
-            if (x < 0 || x >= myWorld.length || y < 0 || y >= myWorld[0].length) {
+            if (x < 0 || x >= width || y < 0 || y >= height) {
                 break; //Stops if reaches edge of world
             }
         }
@@ -413,20 +980,145 @@ public class World {
         }
     }
 
+    /**
+     * Checks if the tile at (x,y) blocks line of sight.
+     * Walls, mountains and trees do, and anything off the map
+     * counts as opaque.
+     *
+     * @param x x-coordinate to check.
+     * @param y y-coordinate to check.
+     * @return true if the tile blocks sight
+     */
+
+    public boolean isOpaque(int x, int y) {
+        if (!isInBounds(x, y)) {
+            return true;
+        }
+        TETile tile = tile(x, y);
+        return tile == Tileset.WALL || tile == Tileset.MOUNTAIN || tile == Tileset.TREE;
+    }
+
+    /**
+     * Checks if the terrain at (x,y) can be walked on. Walls,
+     * water, mountains and trees can't be.
+     * Creatures standing there are checked separately by Entities.
+     *
+     * @param x x-coordinate to check.
+     * @param y y-coordinate to check.
+     * @return true if in bounds and not blocked
+     */
+
+    public boolean isWalkable(int x, int y) {
+        if (!isInBounds(x, y)) {
+            return false;
+        }
+        TETile tile = tile(x, y);
+        return tile != Tileset.WALL && tile != Tileset.WATER && tile != Tileset.MOUNTAIN && tile != Tileset.TREE;
+    }
+
+    /**
+     * Replaces the tile at (x,y). Tigers are told about the change
+     * only when it flips the tile between opaque and see-through,
+     * and the chase map only when walkability changes, so cached
+     * sight and distances stay valid for ordinary movement.
+     *
+     * @param x x-coordinate to set.
+     * @param y y-coordinate to set.
+     * @param tile new tile
+     */
+
+    public void setTile(int x, int y, TETile tile) {
+        boolean wasOpaque = isOpaque(x, y);
+        boolean wasWalkable = isWalkable(x, y);
+        tiles.set(x, y, tile);
+        if (wasOpaque != isOpaque(x, y)) {
+            entities.tileChanged(x, y);
+        }
+        if (wasWalkable != isWalkable(x, y) && chaseMap != null) {
+            chaseMap.markDirty();
+        }
+    }
+
     /**
      * returns 2D tile array of the current world.
-     * Good for reading and modifying world from other classes.
+     * This is the map being generated, so rooms and hallways can build
+     * into it. It only exists during generation; afterwards use getTile
+     * and setTile.
      *
      * @return world.
+     * @throws IllegalStateException once generation is done
      */
 
     public TETile[][] getWorld() {
+        if (myWorld == null) {
+            throw new IllegalStateException("the world is only a tile array while it is generated, use getTile");
+        }
         return myWorld;
     }
+
+    public TETile getTile(int x, int y) {
+        return tile(x, y);
+    }
+
+    /**
+     * Rough heap footprint of this world, added up from the arrays it
+     * and its parts hold, which is nearly all of it. The base grid is
+     * shared by every world of the seed and is not counted.
+     *
+     * @return estimated bytes
+     */
+
+    public long heapBytes() {
+        long bytes = tiles.privateBytes() + entities.heapBytes() + timers.heapBytes() + events.heapBytes()
+                + rooms.heapBytes() + arrayBytes(hashTrail.length, 8) + 3 * arrayBytes(farmerIds.length, 4);
+        if (chaseMap != null) {
+            bytes += chaseMap.heapBytes();
+        }
+        if (latestCheckpoint != null) {
+            bytes += latestCheckpoint.heapBytes();
+        }
+        return bytes;
+    }
+
+    //an array's header and elements, padded to 8 bytes as the JVM lays them out
+    static long arrayBytes(int length, int elementBytes) {
+        return (OBJECT_BYTES + (long) length * elementBytes + 7) & ~7L;
+    }
+
+    TileGrid getTiles() {
+        return tiles;
+    }
+
+    private TETile tile(int x, int y) {
+        return myWorld != null ? myWorld[x][y] : tiles.get(x, y);
+    }
     // build your own world!
 
-    public List<Room> getRooms() {
+    public RoomTable getRooms() {
         return rooms;
     }
 
+    public int getTownHall() {
+        return townHall;
+    }
+
+    public Entities getEntities() {
+        return entities;
+    }
+
+    public EventBus getEvents() {
+        return events;
+    }
+
+    /**
+     * Records how long each of the farmer's moves takes from now on.
+     * Only step(char) is timed, on the thread that calls it.
+     *
+     * @param histogram where to record, or null to stop timing
+     */
+
+    public void timeMoves(LatencyHistogram histogram) {
+        this.moveTimes = histogram;
+    }
+
 }
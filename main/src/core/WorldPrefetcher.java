@@ -0,0 +1,103 @@
+package core;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates worlds for seeds the player might be about to pick, while
+ * they are still typing. Each offer replaces the previous candidate, so
+ * by the time the seed is confirmed its world is usually already built
+ * (or at least half way there) and take only has to hand it over.
+ *
+ * Candidates are built one at a time on a single background thread.
+ * A candidate that hasn't started when the next one is offered is
+ * cancelled. One that has started runs to the end, since generation
+ * can't be interrupted part way, but costs no more than one world.
+ *
+ * Candidates don't add their maps to BaseWorlds, so a seed's prefixes
+ * can't push real entries out of it. Only the world take hands over is
+ * registered.
+ */
+
+public class WorldPrefetcher {
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "world-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long candidateSeed;
+    private Future<World> candidate;
+
+    /**
+     * Starts generating the world for a seed the player is typing,
+     * dropping the previous candidate if it hasn't started yet.
+     *
+     * @param digits the seed so far, ignored if it isn't a valid seed
+     */
+
+    public synchronized void offer(String digits) {
+        long seed;
+        try {
+            seed = Long.parseLong(digits);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (candidate != null) {
+            if (candidateSeed == seed) {
+                return;
+            }
+            candidate.cancel(false);
+        }
+        candidateSeed = seed;
+        candidate = worker.submit(() -> speculative(seed));
+    }
+
+    /**
+     * The world for the confirmed seed, the candidate if it was for this
+     * seed and otherwise a new one. Stops the background thread, so the
+     * prefetcher can't be used again.
+     *
+     * @param seed the seed the player confirmed
+     * @return the world
+     */
+
+    public synchronized World take(long seed) {
+        Future<World> pending = candidate;
+        candidate = null;
+        // not shutdownNow, which would throw away a candidate that is still queued and leave get waiting
+        worker.shutdown();
+        if (pending != null && candidateSeed == seed) {
+            try {
+                World world = pending.get();
+                world.registerBase();
+                return world;
+            } catch (CancellationException | ExecutionException e) {
+                // fall through and build it here
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (pending != null) {
+            pending.cancel(false);
+        }
+        return new World(seed);
+    }
+
+    private static World speculative(long seed) {
+        return new World(seed, World.GENERATOR, EventBus.DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * Stops the background thread without taking a world.
+     */
+
+    public synchronized void cancel() {
+        if (candidate != null) {
+            candidate.cancel(false);
+            candidate = null;
+        }
+        worker.shutdown();
+    }
+}
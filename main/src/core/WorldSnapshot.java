@@ -0,0 +1,402 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A world written out as one fixed-layout binary file that is read back
+ * with FileChannel.map instead of being replayed move by move.
+ *
+ * Snapshots are mapped read-only, so reading them reads straight from
+ * the page cache and the file itself is never changed by a reader. The
+ * mapping only saves reading the whole file up front: the header checks
+ * and tileId touch just the pages they need, but toWorld still copies
+ * every section into the world's own arrays before play goes on.
+ *
+ * Tiles are stored as the sorted cells that differ from the world the
+ * seed generates (see BaseWorlds), so the file grows with what the
+ * player changed rather than with the map. Cell indices are kept at a
+ * fixed width instead of delta coded so a single tile can still be
+ * looked up with a binary search on the mapped file.
+ *
+ * The base grid itself isn't in the snapshot, since every snapshot of
+ * a seed would repeat it. SaveLoad keeps it once per save directory as
+ * save.base (see BaseWorlds.encode), so loading at startup doesn't
+ * generate the world either. Without that file the world is generated
+ * once to get the grid, which is the slow part of a cold load.
+ *
+ * Layout (big-endian, every section starts at an offset the header
+ * gives, so no section has to be scanned to find the next one):
+ *   header     72 bytes, see the *_AT constants
+ *   diff cells diffCount * 4 bytes, sorted cell indices (x * height + y)
+ *   diff ids   diffCount tile ids, one byte each
+ *   rooms      roomCount * 12 bytes: xProp, yProp, size
+ *   entities   entityCount * 20 bytes: x, y, cooldown, home, kind, state, 2 pad
+ *   timers     timerCount * 16 bytes: due (long), kind, arg
+ */
+
+public class WorldSnapshot {
+    static final int MAGIC = 0x5447534E;
+    static final int VERSION = 3;
+    static final int HEADER_BYTES = 72;
+    static final int ROOM_BYTES = 12;
+    static final int ENTITY_BYTES = 20;
+    static final int TIMER_BYTES = 16;
+
+    // header fields
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 4;
+    private static final int SEED_AT = 8;
+    private static final int WIDTH_AT = 16;
+    private static final int HEIGHT_AT = 20;
+    private static final int MOVES_AT = 24;
+    private static final int HARVEST_AT = 28;
+    private static final int TICK_AT = 32;
+    private static final int ROOMS_AT = 40;
+    private static final int TOWN_HALL_AT = 44;
+    private static final int ENTITIES_AT = 48;
+    private static final int TIMERS_AT = 52;
+    private static final int FARMER_AT = 56;
+    private static final int DIFF_AT = 60;
+    private static final int GENERATOR_AT = 64;
+
+    private final ByteBuffer buf;
+    private final int width;
+    private final int height;
+    private final int diffCount;
+    private final int idOffset;
+    private final int roomOffset;
+    private final int entityOffset;
+    private final int timerOffset;
+
+    private WorldSnapshot(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER_BYTES || buf.getInt(MAGIC_AT) != MAGIC) {
+            throw new IOException("not a world snapshot");
+        }
+        if (buf.getInt(VERSION_AT) != VERSION) {
+            throw new IOException("unsupported snapshot version " + buf.getInt(VERSION_AT));
+        }
+        this.width = buf.getInt(WIDTH_AT);
+        this.height = buf.getInt(HEIGHT_AT);
+        this.diffCount = buf.getInt(DIFF_AT);
+        this.idOffset = HEADER_BYTES + diffCount * 4;
+        this.roomOffset = align(idOffset + diffCount);
+        this.entityOffset = roomOffset + roomCount() * ROOM_BYTES;
+        this.timerOffset = entityOffset + entityCount() * ENTITY_BYTES;
+        if (buf.capacity() < timerOffset + timerCount() * TIMER_BYTES) {
+            throw new IOException("world snapshot is truncated");
+        }
+    }
+
+    /**
+     * Writes world to path as a snapshot.
+     *
+     * @param path file to write, replaced if it exists
+     * @param world world to write
+     * @throws IOException if the file can't be written
+     */
+
+    public static void write(Path path, World world) throws IOException {
+        write(path, world, true);
+    }
+
+    /**
+     * Writes world to path as a snapshot.
+     *
+     * @param path file to write, replaced if it exists
+     * @param world world to write
+     * @param sync whether to force the file to disk before returning
+     * @throws IOException if the file can't be written
+     */
+
+    public static void write(Path path, World world, boolean sync) throws IOException {
+        ByteBuffer bytes = encode(world);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes.remaining());
+            out.put(bytes);
+            if (sync) {
+                out.force();
+            }
+        }
+    }
+
+    /**
+     * Encodes world exactly as write lays it out on disk, so it can be
+     * written later, or from another thread, without touching the world.
+     *
+     * @param world world to encode
+     * @return the snapshot bytes, from position 0 to the limit
+     */
+
+    static ByteBuffer encode(World world) {
+        return encode(world, Checkpoint.capture(world, world.getMoves()));
+    }
+
+    /**
+     * Encodes a world from a copy of its changing state. Only the parts
+     * of world that are fixed once it is generated (seed, size, rooms,
+     * town hall and farmer id) are read, so this can run on another
+     * thread while the world keeps moving.
+     *
+     * @param world world state was captured from
+     * @param state the world's tiles, creatures, harvest and timers
+     * @return the snapshot bytes, from position 0 to the limit
+     */
+
+    static ByteBuffer encode(World world, Checkpoint state) {
+        RoomTable rooms = world.getRooms();
+        int w = world.width;
+        int h = world.height;
+        TileDiff diff = TileDiff.between(BaseWorlds.tiles(world.getSeed(), world.getGenerator()), state.tiles);
+        int idOffset = HEADER_BYTES + diff.size() * 4;
+        int roomOffset = align(idOffset + diff.size());
+        int entityOffset = roomOffset + rooms.count() * ROOM_BYTES;
+        int timerOffset = entityOffset + state.entityCount * ENTITY_BYTES;
+        int size = timerOffset + state.timerDue.length * TIMER_BYTES;
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC_AT, MAGIC);
+        out.putInt(VERSION_AT, VERSION);
+        out.putLong(SEED_AT, world.getSeed());
+        out.putInt(WIDTH_AT, w);
+        out.putInt(HEIGHT_AT, h);
+        out.putInt(MOVES_AT, state.moveIndex);
+        out.putInt(HARVEST_AT, state.harvest);
+        out.putLong(TICK_AT, state.tick);
+        out.putInt(ROOMS_AT, rooms.count());
+        out.putInt(TOWN_HALL_AT, world.getTownHall());
+        out.putInt(ENTITIES_AT, state.entityCount);
+        out.putInt(TIMERS_AT, state.timerDue.length);
+        out.putInt(FARMER_AT, world.Farmer.getId());
+        out.putInt(DIFF_AT, diff.size());
+        out.putInt(GENERATOR_AT, world.getGenerator());
+
+        out.position(HEADER_BYTES);
+        for (int i = 0; i < diff.size(); i++) {
+            out.putInt(diff.cell(i));
+        }
+        for (int i = 0; i < diff.size(); i++) {
+            out.put(diff.id(i));
+        }
+
+        out.position(roomOffset);
+        for (int room = 0; room < rooms.count(); room++) {
+            out.putInt(rooms.x(room)).putInt(rooms.y(room)).putInt(rooms.size(room));
+        }
+
+        for (int i = 0; i < state.entityCount; i++) {
+            out.putInt(state.entityX[i]).putInt(state.entityY[i]);
+            out.putInt(state.cooldowns[i]).putInt(state.homes[i]);
+            out.put(state.kinds[i]).put(state.states[i]).putShort((short) 0);
+        }
+
+        for (int i = 0; i < state.timerDue.length; i++) {
+            out.putLong(state.timerDue[i]).putInt(state.timerKind[i]).putInt(state.timerArg[i]);
+        }
+        out.clear();
+        return out;
+    }
+
+    /**
+     * Maps a snapshot file read-only. Nothing is read until it is used.
+     *
+     * @param path snapshot file
+     * @return a view of the snapshot
+     * @throws IOException if the file can't be mapped or is not a snapshot
+     */
+
+    public static WorldSnapshot map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new WorldSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads a snapshot file into the heap instead of mapping it, for
+     * callers that delete the file as soon as they have read it.
+     *
+     * @param path snapshot file
+     * @return a view of the snapshot
+     * @throws IOException if the file can't be read or is not a snapshot
+     */
+
+    public static WorldSnapshot read(Path path) throws IOException {
+        return new WorldSnapshot(ByteBuffer.wrap(Files.readAllBytes(path)));
+    }
+
+    /**
+     * Builds a playable world from this snapshot without replaying its
+     * moves. World generation only runs if BaseWorlds doesn't have the
+     * seed's base grid yet. Everything is copied out of the snapshot, so the
+     * world doesn't keep the mapping (or the file) alive.
+     *
+     * @return the restored world
+     * @throws IllegalArgumentException if the snapshot holds a tile id this build doesn't know
+     */
+
+    public World toWorld() {
+        return new World(this);
+    }
+
+    //sections are kept 8-byte aligned so the longs in them are too
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    public long seed() {
+        return buf.getLong(SEED_AT);
+    }
+
+    public int generator() {
+        return buf.getInt(GENERATOR_AT);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int moves() {
+        return buf.getInt(MOVES_AT);
+    }
+
+    public int harvest() {
+        return buf.getInt(HARVEST_AT);
+    }
+
+    public long tick() {
+        return buf.getLong(TICK_AT);
+    }
+
+    /**
+     * Looks up one tile without decoding the rest of the grid.
+     *
+     * @param x x-coordinate
+     * @param y y-coordinate
+     * @return the saved tile id at (x, y)
+     */
+
+    public int tileId(int x, int y) {
+        int cell = x * height + y;
+        int lo = 0;
+        int hi = diffCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int found = buf.getInt(HEADER_BYTES + mid * 4);
+            if (found < cell) {
+                lo = mid + 1;
+            } else if (found > cell) {
+                hi = mid - 1;
+            } else {
+                return buf.get(idOffset + mid);
+            }
+        }
+        return base()[cell];
+    }
+
+    /**
+     * Every saved tile id, index x * height + y.
+     *
+     * @return a new array of tile ids
+     */
+
+    public byte[] tiles() {
+        byte[] tiles = base().clone();
+        for (int i = 0; i < diffCount; i++) {
+            tiles[buf.getInt(HEADER_BYTES + i * 4)] = buf.get(idOffset + i);
+        }
+        return tiles;
+    }
+
+    public int diffCount() {
+        return diffCount;
+    }
+
+    private byte[] base() {
+        byte[] base = BaseWorlds.tiles(seed(), generator());
+        if (base.length != width * height) {
+            throw new IllegalStateException("snapshot is " + width + "x" + height
+                    + " but the seed generates " + base.length + " cells");
+        }
+        return base;
+    }
+
+    public int roomCount() {
+        return buf.getInt(ROOMS_AT);
+    }
+
+    public int townHall() {
+        return buf.getInt(TOWN_HALL_AT);
+    }
+
+    int roomX(int i) {
+        return buf.getInt(roomOffset + i * ROOM_BYTES);
+    }
+
+    int roomY(int i) {
+        return buf.getInt(roomOffset + i * ROOM_BYTES + 4);
+    }
+
+    int roomSize(int i) {
+        return buf.getInt(roomOffset + i * ROOM_BYTES + 8);
+    }
+
+    public int entityCount() {
+        return buf.getInt(ENTITIES_AT);
+    }
+
+    public int farmer() {
+        return buf.getInt(FARMER_AT);
+    }
+
+    int entityX(int i) {
+        return buf.getInt(entityOffset + i * ENTITY_BYTES);
+    }
+
+    int entityY(int i) {
+        return buf.getInt(entityOffset + i * ENTITY_BYTES + 4);
+    }
+
+    int entityCooldown(int i) {
+        return buf.getInt(entityOffset + i * ENTITY_BYTES + 8);
+    }
+
+    int entityHome(int i) {
+        return buf.getInt(entityOffset + i * ENTITY_BYTES + 12);
+    }
+
+    byte entityKind(int i) {
+        return buf.get(entityOffset + i * ENTITY_BYTES + 16);
+    }
+
+    byte entityState(int i) {
+        return buf.get(entityOffset + i * ENTITY_BYTES + 17);
+    }
+
+    public int timerCount() {
+        return buf.getInt(TIMERS_AT);
+    }
+
+    long timerDue(int i) {
+        return buf.getLong(timerOffset + i * TIMER_BYTES);
+    }
+
+    int timerKind(int i) {
+        return buf.getInt(timerOffset + i * TIMER_BYTES + 8);
+    }
+
+    int timerArg(int i) {
+        return buf.getInt(timerOffset + i * TIMER_BYTES + 12);
+    }
+}
@@ -83,7 +83,7 @@ public class TERenderer {
      * @param world the 2D TETile[][] array to render
      */
     public void renderFrame(TETile[][] world) {
-        StdDraw.clear(new Color(0, 0, 0));
+        StdDraw.clear(Color.BLACK);
         drawTiles(world);
 //        StdDraw.show();
     }
@@ -106,6 +106,19 @@ public class TERenderer {
         }
     }
 
+    /**
+     * Draws every tile once into the back buffer and clears it again, without
+     * showing anything. The first frame otherwise pays for loading the tile
+     * font and rasterising each glyph, which makes it noticeably slower than
+     * the rest. Call after initialize, before the screen is drawn on.
+     */
+    public void warm() {
+        for (int id = 0; id < Tileset.count(); id += 1) {
+            Tileset.byId(id).draw(xOffset, yOffset);
+        }
+        StdDraw.clear(Color.BLACK);
+    }
+
     /**
      * Resets the font to default settings. You should call this method before drawing any tiles
      * if you changed the pen settings.
@@ -28,6 +28,8 @@ public class TETile {
     private final String description;
     private final String filepath;
     private final int id;
+    // the character as a String, made once since draw needs one per tile per frame
+    private final String text;
 
     /**
      * Full constructor for TETile objects.
@@ -45,6 +47,7 @@ public class TETile {
         this.description = description;
         this.filepath = filepath;
         this.id = id;
+        this.text = String.valueOf(character);
     }
 
     /**
@@ -62,6 +65,7 @@ public class TETile {
         this.description = description;
         this.filepath = null;
         this.id = id;
+        this.text = String.valueOf(character);
     }
 
     /**
@@ -107,7 +111,7 @@ public class TETile {
         StdDraw.setPenColor(backgroundColor);
         StdDraw.filledSquare(x + 0.5, y + 0.5, 0.5);
         StdDraw.setPenColor(textColor);
-        StdDraw.text(x + 0.5, y + 0.5, Character.toString(character()));
+        StdDraw.text(x + 0.5, y + 0.5, text);
     }
 
     /** Character representation of the tile. Used for drawing in text mode.
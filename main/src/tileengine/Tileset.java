@@ -34,6 +34,36 @@ public class Tileset {
     public static final TETile TREE = new TETile('♠', Color.green, Color.black, "tree", 11);
 
     public static final TETile CELL = new TETile('█', Color.white, Color.black, "cell", 12);
+    public static final TETile TIGER = new TETile('T', Color.orange, Color.black, "tiger", 13);
+    public static final TETile VILLAGER = new TETile('v', Color.cyan, Color.black, "villager", 14);
+    public static final TETile ANIMAL = new TETile('a', Color.lightGray, Color.black, "animal", 15);
+
+    // indexed by tile id, used to turn saved ids back into tiles
+    private static final TETile[] BY_ID = {
+        AVATAR, WALL, FLOOR, NOTHING, GRASS, WATER, FLOWER, LOCKED_DOOR, UNLOCKED_DOOR,
+        SAND, MOUNTAIN, TREE, CELL, TIGER, VILLAGER, ANIMAL
+    };
+
+    /**
+     * Number of tiles, whose ids run from 0 to count() - 1.
+     * @return tile count
+     */
+    public static int count() {
+        return BY_ID.length;
+    }
+
+    /**
+     * Looks up the tile with the given id.
+     * @param id tile id
+     * @return the matching tile
+     * @throws IllegalArgumentException if no tile has that id
+     */
+    public static TETile byId(int id) {
+        if (id < 0 || id >= BY_ID.length) {
+            throw new IllegalArgumentException("unknown tile id: " + id);
+        }
+        return BY_ID[id];
+    }
 }
 
 
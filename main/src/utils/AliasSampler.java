@@ -0,0 +1,153 @@
+package utils;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A discrete distribution set up once and then sampled in constant time,
+ * using Vose's alias method.
+ * <p>
+ * {@link RandomUtils#discrete(RandomGenerator, double[])} checks its
+ * array and walks it on every call, which is fine for a one-off pick but
+ * not for picking a tile type per cell. Building a sampler costs O(n)
+ * once, and every draw after that is one random number, one multiply
+ * and one table lookup no matter how many outcomes there are.
+ * <p>
+ * A sampler is immutable, so one instance can be shared between threads
+ * as long as each thread passes its own generator.
+ */
+public class AliasSampler {
+    private final double[] prob;
+    private final int[] alias;
+
+    /**
+     * Builds a sampler that returns {@code i} with probability
+     * proportional to {@code weights[i]}. The weights don't have to add
+     * up to 1.
+     *
+     * @param weights relative weight of each outcome
+     * @throws IllegalArgumentException if {@code weights} is null or empty
+     * @throws IllegalArgumentException if any weight is negative or not finite
+     * @throws IllegalArgumentException if all weights are 0
+     */
+    public AliasSampler(double[] weights) {
+        if (weights == null || weights.length == 0) {
+            throw new IllegalArgumentException("weights must be a non-empty array");
+        }
+        int n = weights.length;
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            if (!(weights[i] >= 0.0) || Double.isInfinite(weights[i])) {
+                throw new IllegalArgumentException("array entry " + i + " must be nonnegative and finite: "
+                                                   + weights[i]);
+            }
+            sum += weights[i];
+        }
+        if (sum == 0.0) {
+            throw new IllegalArgumentException("at least one array entry must be positive");
+        }
+
+        this.prob = new double[n];
+        this.alias = new int[n];
+
+        // scale so the average column is exactly 1, then pair each short
+        // column with a tall one that tops it up
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            prob[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // whatever is left is 1 up to rounding error
+        while (largeCount > 0) {
+            int i = large[--largeCount];
+            prob[i] = 1.0;
+            alias[i] = i;
+        }
+        while (smallCount > 0) {
+            int i = small[--smallCount];
+            prob[i] = 1.0;
+            alias[i] = i;
+        }
+    }
+
+    /**
+     * Builds a sampler that returns {@code i} with probability
+     * proportional to {@code frequencies[i]}.
+     *
+     * @param frequencies how often each outcome should come up
+     * @return the sampler
+     * @throws IllegalArgumentException if {@code frequencies} is null or empty
+     * @throws IllegalArgumentException if any frequency is negative
+     * @throws IllegalArgumentException if all frequencies are 0
+     */
+    public static AliasSampler ofFrequencies(int[] frequencies) {
+        if (frequencies == null) {
+            throw new IllegalArgumentException("argument array is null");
+        }
+        double[] weights = new double[frequencies.length];
+        for (int i = 0; i < frequencies.length; i++) {
+            weights[i] = frequencies[i];
+        }
+        return new AliasSampler(weights);
+    }
+
+    /**
+     * Draws one outcome.
+     *
+     * @param random generator to draw from
+     * @return an index between 0 (inclusive) and {@link #size()} (exclusive)
+     */
+    public int sample(RandomGenerator random) {
+        // the integer part picks the column, the fraction picks column or alias
+        double u = random.nextDouble() * prob.length;
+        int i = (int) u;
+        return u - i < prob[i] ? i : alias[i];
+    }
+
+    /**
+     * Fills {@code a} with independent draws.
+     *
+     * @param random generator to draw from
+     * @param a array to fill
+     * @throws IllegalArgumentException if {@code a} is null
+     */
+    public void fill(RandomGenerator random, int[] a) {
+        if (a == null) {
+            throw new IllegalArgumentException("argument array is null");
+        }
+        int n = prob.length;
+        for (int k = 0; k < a.length; k++) {
+            double u = random.nextDouble() * n;
+            int i = (int) u;
+            a[k] = u - i < prob[i] ? i : alias[i];
+        }
+    }
+
+    /**
+     * Returns the number of outcomes.
+     *
+     * @return the number of outcomes
+     */
+    public int size() {
+        return prob.length;
+    }
+}
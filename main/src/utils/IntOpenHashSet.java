@@ -0,0 +1,55 @@
+package utils;
+
+/**
+ * A set of non-negative ints in one flat array with linear probing,
+ * for the samplers in RandomUtils that need to remember a few picks
+ * without boxing every one into a HashSet.
+ * <p>
+ * The table is sized once for the expected number of elements and is
+ * never resized.
+ */
+class IntOpenHashSet {
+    // slots hold value + 1 so that 0 can mean empty
+    private final int[] slots;
+    private final int mask;
+
+    /**
+     * Creates a set that can hold {@code expected} elements while
+     * staying at most half full.
+     *
+     * @param expected largest number of elements that will be added
+     */
+    IntOpenHashSet(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value value between 0 and Integer.MAX_VALUE - 1
+     * @return true if it was not in the set yet
+     */
+    boolean add(int value) {
+        int stored = value + 1;
+        int i = mix(value) & mask;
+        while (slots[i] != 0) {
+            if (slots[i] == stored) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = stored;
+        return true;
+    }
+
+    //murmur3 finalizer, so runs of consecutive values don't cluster
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+}
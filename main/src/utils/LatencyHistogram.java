@@ -0,0 +1,145 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed bucket histogram of durations in nanoseconds. Buckets are log
+ * linear: every power of two is split into SUB_BUCKETS equal slices, so
+ * any recorded value is off by at most 1/SUB_BUCKETS of itself no matter
+ * how large it is, and the whole range up to MAX_VALUE fits in a few
+ * hundred counters.
+ *
+ * Recording never allocates and never locks. It is meant to be done by a
+ * single thread; any other thread may read the histogram at the same
+ * time and sees counts that are at most a few recordings behind.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    /** Slices per power of two. */
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    /** Largest value kept apart, 2^41 - 1 ns, about 36.6 minutes. Anything longer lands in the last bucket. */
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    /** Number of buckets. */
+    public static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MAX = 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    // count, sum and max, kept like the buckets rather than volatile to avoid a fence per recording
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+
+    /**
+     * Adds one duration.
+     *
+     * @param nanos duration in nanoseconds, negatives count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        int i = bucket(value);
+        // single writer, so a plain read and ordered write is enough and much cheaper than a CAS
+        counts.lazySet(i, counts.get(i) + 1);
+        totals.lazySet(SUM, totals.get(SUM) + value);
+        if (value > totals.get(MAX)) {
+            totals.lazySet(MAX, value);
+        }
+        totals.lazySet(COUNT, totals.get(COUNT) + 1);
+    }
+
+    /**
+     * Adds the time since start.
+     *
+     * @param start an earlier System.nanoTime
+     * @return the current System.nanoTime, so back to back sections can share one call
+     */
+    public long recordSince(long start) {
+        long now = System.nanoTime();
+        record(now - start);
+        return now;
+    }
+
+    public long count() {
+        return totals.get(COUNT);
+    }
+
+    public long max() {
+        return totals.get(MAX);
+    }
+
+    public double mean() {
+        long n = totals.get(COUNT);
+        return n == 0 ? 0 : (double) totals.get(SUM) / n;
+    }
+
+    /**
+     * Value below which the given fraction of recordings fall, rounded up
+     * to the top of its bucket.
+     *
+     * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the value in nanoseconds, 0 if nothing was recorded
+     * @throws IllegalArgumentException if quantile is outside 0 to 1
+     */
+    public long valueAt(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1: " + quantile);
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Number of recordings in bucket i.
+     *
+     * @param i bucket index
+     * @return recordings between lowerBound(i) and upperBound(i), inclusive
+     */
+    public long countAt(int i) {
+        return counts.get(i);
+    }
+
+    /**
+     * Bucket a value is counted in.
+     *
+     * @param value value between 0 and MAX_VALUE
+     * @return the bucket index
+     */
+    public static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return ((shift + 1) << SUB_BITS) + sub;
+    }
+
+    public static long lowerBound(int i) {
+        if (i < SUB_BUCKETS) {
+            return i;
+        }
+        int shift = (i >> SUB_BITS) - 1;
+        return (long) (SUB_BUCKETS + (i & (SUB_BUCKETS - 1))) << shift;
+    }
+
+    public static long upperBound(int i) {
+        if (i < SUB_BUCKETS) {
+            return i;
+        }
+        return lowerBound(i) + (1L << ((i >> SUB_BITS) - 1)) - 1;
+    }
+}
@@ -1,6 +1,12 @@
 package utils;
 
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
 
 /**
  * A library of static methods to generate pseudo-random numbers from
@@ -9,16 +15,88 @@ import java.util.Random;
  * other randomness related stuff you might want to do. Feel free to
  * modify this file.
  * <p>
+ * Every method takes any {@code RandomGenerator}, so a seeded
+ * {@code java.util.Random} gives exactly the numbers it always has, while
+ * hot loops can pass a {@link #fast(long)} generator instead and skip
+ * Random's atomic seed update on every draw. Parallel work should give
+ * each task its own {@link #substream(long, long)} so results don't
+ * depend on which thread ran what.
+ * <p>
  * Adapted from https://introcs.cs.princeton.edu/java/22library/StdRandom.java.html
  */
 public class RandomUtils {
+    /** Algorithm behind {@link #fast(long)}: small state, no locking, splittable. */
+    public static final String FAST_ALGORITHM = "L64X128MixRandom";
+    // looking a factory up goes through ServiceLoader, so only do it once
+    private static final RandomGeneratorFactory<RandomGenerator> FAST = RandomGeneratorFactory.of(FAST_ALGORITHM);
+
+    /**
+     * Returns a new unsynchronized generator. Much cheaper per draw than
+     * {@code java.util.Random}, but it must not be shared between threads
+     * and gives different numbers than Random for the same seed.
+     *
+     * @param seed the seed
+     * @return a new generator
+     */
+    public static RandomGenerator fast(long seed) {
+        return FAST.create(seed);
+    }
+
+    /**
+     * Returns a splittable generator, for code that wants to hand
+     * child generators out as it goes with {@code split()}.
+     *
+     * @param seed the seed
+     * @return a new splittable generator
+     */
+    public static RandomGenerator.SplittableGenerator splittable(long seed) {
+        return (RandomGenerator.SplittableGenerator) FAST.create(seed);
+    }
+
+    /**
+     * Returns generator number {@code index} of a family derived from
+     * {@code seed}. The same seed and index always give the same stream
+     * and different indices give independent ones, no matter the order
+     * (or thread) they are created on. Meant for splitting work into
+     * chunks, with the chunk number as the index.
+     *
+     * @param seed seed of the whole family
+     * @param index which stream of the family
+     * @return a new generator
+     */
+    public static RandomGenerator substream(long seed, long index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return FAST.create(z ^ (z >>> 31));
+    }
+
+    /**
+     * Returns {@code n} substreams of {@code seed}, the same as calling
+     * {@link #substream(long, long)} with indices 0 to n - 1.
+     *
+     * @param seed seed of the whole family
+     * @param n number of streams
+     * @return the generators
+     * @throws IllegalArgumentException if {@code n} is negative
+     */
+    public static RandomGenerator[] substreams(long seed, int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("argument is negative: " + n);
+        }
+        RandomGenerator[] streams = new RandomGenerator[n];
+        for (int i = 0; i < n; i++) {
+            streams[i] = substream(seed, i);
+        }
+        return streams;
+    }
 
     /**
      * Returns a random real number uniformly in [0, 1).
      *
      * @return a random real number uniformly in [0, 1)
      */
-    public static double uniform(Random random) {
+    public static double uniform(RandomGenerator random) {
         return random.nextDouble();
     }
 
@@ -29,7 +107,7 @@ public class RandomUtils {
      * @return a random integer uniformly between 0 (inclusive) and {@code n} (exclusive)
      * @throws IllegalArgumentException if {@code n <= 0}
      */
-    public static int uniform(Random random, int n) {
+    public static int uniform(RandomGenerator random, int n) {
         if (n <= 0) {
             throw new IllegalArgumentException("argument must be positive: " + n);
         }
@@ -44,7 +122,7 @@ public class RandomUtils {
      * @return a random long integer uniformly between 0 (inclusive) and {@code n} (exclusive)
      * @throws IllegalArgumentException if {@code n <= 0}
      */
-    public static long uniform(Random random, long n) {
+    public static long uniform(RandomGenerator random, long n) {
         if (n <= 0L) {
             throw new IllegalArgumentException("argument must be positive: " + n);
         }
@@ -67,7 +145,7 @@ public class RandomUtils {
     }
 
     ///////////////////////////////////////////////////////////////////////////
-    //  STATIC METHODS BELOW RELY ON JAVA.UTIL.RANDOM ONLY INDIRECTLY VIA
+    //  STATIC METHODS BELOW RELY ON THE GENERATOR ONLY INDIRECTLY VIA
     //  THE STATIC METHODS ABOVE.
     ///////////////////////////////////////////////////////////////////////////
 
@@ -81,7 +159,7 @@ public class RandomUtils {
      * @throws IllegalArgumentException if {@code b <= a}
      * @throws IllegalArgumentException if {@code b - a >= Integer.MAX_VALUE}
      */
-    public static int uniform(Random random, int a, int b) {
+    public static int uniform(RandomGenerator random, int a, int b) {
         if ((b <= a) || ((long) b - a >= Integer.MAX_VALUE)) {
             throw new IllegalArgumentException("invalid range: [" + a + ", " + b + ")");
         }
@@ -96,7 +174,7 @@ public class RandomUtils {
      * @return a random real number uniformly in [a, b)
      * @throws IllegalArgumentException unless {@code a < b}
      */
-    public static double uniform(Random random, double a, double b) {
+    public static double uniform(RandomGenerator random, double a, double b) {
         if (!(a < b)) {
             throw new IllegalArgumentException("invalid range: [" + a + ", " + b + ")");
         }
@@ -112,7 +190,7 @@ public class RandomUtils {
      * {@code false} with probability {@code p}
      * @throws IllegalArgumentException unless {@code 0} &le; {@code p} &le; {@code 1.0}
      */
-    public static boolean bernoulli(Random random, double p) {
+    public static boolean bernoulli(RandomGenerator random, double p) {
         if (!(p >= 0.0 && p <= 1.0)) {
             throw new IllegalArgumentException("probability p must be between 0.0 and 1.0: " + p);
         }
@@ -126,7 +204,7 @@ public class RandomUtils {
      * @return {@code true} with probability 1/2 and
      * {@code false} with probability 1/2
      */
-    public static boolean bernoulli(Random random) {
+    public static boolean bernoulli(RandomGenerator random) {
         return bernoulli(random, 0.5);
     }
 
@@ -136,7 +214,7 @@ public class RandomUtils {
      * @return a random real number from a standard Gaussian distribution
      * (mean 0 and standard deviation 1).
      */
-    public static double gaussian(Random random) {
+    public static double gaussian(RandomGenerator random) {
         // use the polar form of the Box-Muller transform
         double r, x, y;
         do {
@@ -159,7 +237,7 @@ public class RandomUtils {
      * @return a real number distributed according to the Gaussian distribution
      * with mean {@code mu} and standard deviation {@code sigma}
      */
-    public static double gaussian(Random random, double mu, double sigma) {
+    public static double gaussian(RandomGenerator random, double mu, double sigma) {
         return mu + sigma * gaussian(random);
     }
 
@@ -173,7 +251,7 @@ public class RandomUtils {
      * {@code p} is (nearly) equal to {@code 1.0}.
      * @throws IllegalArgumentException unless {@code p >= 0.0} and {@code p <= 1.0}
      */
-    public static int geometric(Random random, double p) {
+    public static int geometric(RandomGenerator random, double p) {
         if (!(p >= 0.0 && p <= 1.0)) {
             throw new IllegalArgumentException("probability p must be between 0.0 and 1.0: " + p);
         }
@@ -188,7 +266,7 @@ public class RandomUtils {
      * @return a random integer from a Poisson distribution with mean {@code lambda}
      * @throws IllegalArgumentException unless {@code lambda > 0.0} and not infinite
      */
-    public static int poisson(Random random, double lambda) {
+    public static int poisson(RandomGenerator random, double lambda) {
         if (!(lambda > 0.0)) {
             throw new IllegalArgumentException("lambda must be positive: " + lambda);
         }
@@ -212,7 +290,7 @@ public class RandomUtils {
      *
      * @return a random real number from the standard Pareto distribution
      */
-    public static double pareto(Random random) {
+    public static double pareto(RandomGenerator random) {
         return pareto(random, 1.0);
     }
 
@@ -225,7 +303,7 @@ public class RandomUtils {
      * parameter {@code alpha}
      * @throws IllegalArgumentException unless {@code alpha > 0.0}
      */
-    public static double pareto(Random random, double alpha) {
+    public static double pareto(RandomGenerator random, double alpha) {
         if (!(alpha > 0.0)) {
             throw new IllegalArgumentException("alpha must be positive: " + alpha);
         }
@@ -237,10 +315,66 @@ public class RandomUtils {
      *
      * @return a random real number from the Cauchy distribution.
      */
-    public static double cauchy(Random random) {
+    public static double cauchy(RandomGenerator random) {
         return Math.tan(Math.PI * (uniform(random) - 0.5));
     }
 
+    /**
+     * Fills {@code a} with random integers uniformly in [0, n).
+     *
+     * @param a the array to fill
+     * @param n number of possible integers
+     * @throws IllegalArgumentException if {@code a} is null
+     * @throws IllegalArgumentException if {@code n <= 0}
+     */
+    public static void fillUniform(RandomGenerator random, int[] a, int n) {
+        validateNotNull(a);
+        if (n <= 0) {
+            throw new IllegalArgumentException("argument must be positive: " + n);
+        }
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextInt(n);
+        }
+    }
+
+    /**
+     * Fills {@code a} with random real numbers uniformly in [0, 1).
+     *
+     * @param a the array to fill
+     * @throws IllegalArgumentException if {@code a} is null
+     */
+    public static void fillUniform(RandomGenerator random, double[] a) {
+        validateNotNull(a);
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextDouble();
+        }
+    }
+
+    /**
+     * Fills {@code a} with random real numbers from a standard Gaussian
+     * distribution. Unlike calling {@link #gaussian(RandomGenerator)} in a
+     * loop, both values from each Box-Muller pair are used.
+     *
+     * @param a the array to fill
+     * @throws IllegalArgumentException if {@code a} is null
+     */
+    public static void fillGaussian(RandomGenerator random, double[] a) {
+        validateNotNull(a);
+        for (int i = 0; i < a.length; i += 2) {
+            double r, x, y;
+            do {
+                x = uniform(random, -1.0, 1.0);
+                y = uniform(random, -1.0, 1.0);
+                r = x * x + y * y;
+            } while (r >= 1 || r == 0);
+            double scale = Math.sqrt(-2 * Math.log(r) / r);
+            a[i] = x * scale;
+            if (i + 1 < a.length) {
+                a[i + 1] = y * scale;
+            }
+        }
+    }
+
     /**
      * Returns a random integer from the specified discrete distribution.
      *
@@ -251,7 +385,7 @@ public class RandomUtils {
      * @throws IllegalArgumentException if sum of array entries is not (very nearly) equal to 1.0
      * @throws IllegalArgumentException unless {@code probabilities[i] >= 0.0} for each index i
      */
-    public static int discrete(Random random, double[] probabilities) {
+    public static int discrete(RandomGenerator random, double[] probabilities) {
         if (probabilities == null) {
             throw new IllegalArgumentException("argument array is null");
         }
@@ -294,7 +428,7 @@ public class RandomUtils {
      * @throws IllegalArgumentException if frequencies[i] is negative for any index i
      * @throws IllegalArgumentException if sum of frequencies exceeds Integer.MAX_VALUE (2^31 - 1)
      */
-    public static int discrete(Random random, int[] frequencies) {
+    public static int discrete(RandomGenerator random, int[] frequencies) {
         if (frequencies == null) {
             throw new IllegalArgumentException("argument array is null");
         }
@@ -337,7 +471,7 @@ public class RandomUtils {
      * rate {@code lambda}
      * @throws IllegalArgumentException unless {@code lambda > 0.0}
      */
-    public static double exp(Random random, double lambda) {
+    public static double exp(RandomGenerator random, double lambda) {
         if (!(lambda > 0.0)) {
             throw new IllegalArgumentException("lambda must be positive: " + lambda);
         }
@@ -350,7 +484,7 @@ public class RandomUtils {
      * @param a the array to shuffle
      * @throws IllegalArgumentException if {@code a} is {@code null}
      */
-    public static void shuffle(Random random, Object[] a) {
+    public static void shuffle(RandomGenerator random, Object[] a) {
         validateNotNull(a);
         int n = a.length;
         for (int i = 0; i < n; i++) {
@@ -367,7 +501,7 @@ public class RandomUtils {
      * @param a the array to shuffle
      * @throws IllegalArgumentException if {@code a} is {@code null}
      */
-    public static void shuffle(Random random, double[] a) {
+    public static void shuffle(RandomGenerator random, double[] a) {
         validateNotNull(a);
         int n = a.length;
         for (int i = 0; i < n; i++) {
@@ -384,7 +518,7 @@ public class RandomUtils {
      * @param a the array to shuffle
      * @throws IllegalArgumentException if {@code a} is {@code null}
      */
-    public static void shuffle(Random random, int[] a) {
+    public static void shuffle(RandomGenerator random, int[] a) {
         validateNotNull(a);
         int n = a.length;
         for (int i = 0; i < n; i++) {
@@ -401,7 +535,7 @@ public class RandomUtils {
      * @param a the array to shuffle
      * @throws IllegalArgumentException if {@code a} is {@code null}
      */
-    public static void shuffle(Random random, char[] a) {
+    public static void shuffle(RandomGenerator random, char[] a) {
         validateNotNull(a);
         int n = a.length;
         for (int i = 0; i < n; i++) {
@@ -421,7 +555,7 @@ public class RandomUtils {
      * @throws IllegalArgumentException if {@code a} is {@code null}
      * @throws IllegalArgumentException unless {@code (0 <= lo) && (lo < hi) && (hi <= a.length)}
      */
-    public static void shuffle(Random random, Object[] a, int lo, int hi) {
+    public static void shuffle(RandomGenerator random, Object[] a, int lo, int hi) {
         validateNotNull(a);
         validateSubarrayIndices(lo, hi, a.length);
 
@@ -442,7 +576,7 @@ public class RandomUtils {
      * @throws IllegalArgumentException if {@code a} is {@code null}
      * @throws IllegalArgumentException unless {@code (0 <= lo) && (lo < hi) && (hi <= a.length)}
      */
-    public static void shuffle(Random random, double[] a, int lo, int hi) {
+    public static void shuffle(RandomGenerator random, double[] a, int lo, int hi) {
         validateNotNull(a);
         validateSubarrayIndices(lo, hi, a.length);
 
@@ -463,7 +597,7 @@ public class RandomUtils {
      * @throws IllegalArgumentException if {@code a} is {@code null}
      * @throws IllegalArgumentException unless {@code (0 <= lo) && (lo < hi) && (hi <= a.length)}
      */
-    public static void shuffle(Random random, int[] a, int lo, int hi) {
+    public static void shuffle(RandomGenerator random, int[] a, int lo, int hi) {
         validateNotNull(a);
         validateSubarrayIndices(lo, hi, a.length);
 
@@ -483,7 +617,7 @@ public class RandomUtils {
      * of {@code 0}, {@code 1}, ..., {@code n-1}
      * @throws IllegalArgumentException if {@code n} is negative
      */
-    public static int[] permutation(Random random, int n) {
+    public static int[] permutation(RandomGenerator random, int n) {
         if (n < 0) {
             throw new IllegalArgumentException("argument is negative");
         }
@@ -505,7 +639,7 @@ public class RandomUtils {
      * @throws IllegalArgumentException if {@code n} is negative
      * @throws IllegalArgumentException unless {@code 0 <= k <= n}
      */
-    public static int[] permutation(Random random, int n, int k) {
+    public static int[] permutation(RandomGenerator random, int n, int k) {
         if (n < 0) {
             throw new IllegalArgumentException("argument is negative");
         }
@@ -527,6 +661,133 @@ public class RandomUtils {
         return perm;
     }
 
+    /**
+     * Returns {@code k} distinct integers picked uniformly from [0, n), in
+     * random order. Uses Floyd's algorithm, so time and memory are O(k)
+     * however large {@code n} is, unlike {@link #permutation(RandomGenerator, int, int)}
+     * which walks all of [0, n).
+     *
+     * @param n number of integers to choose from
+     * @param k number of integers to pick
+     * @return an array of {@code k} distinct integers in [0, n)
+     * @throws IllegalArgumentException if {@code n} is negative
+     * @throws IllegalArgumentException unless {@code 0 <= k <= n}
+     */
+    public static int[] sample(RandomGenerator random, int n, int k) {
+        if (n < 0) {
+            throw new IllegalArgumentException("argument is negative");
+        }
+        if (k < 0 || k > n) {
+            throw new IllegalArgumentException("k must be between 0 and n");
+        }
+        int[] picked = new int[k];
+        IntOpenHashSet seen = new IntOpenHashSet(k);
+        int count = 0;
+        // for each j in [n-k, n) pick from [0, j], taking j itself on a repeat (j can't be taken yet)
+        for (int j = n - k; j < n; j++) {
+            int t = random.nextInt(j + 1);
+            if (!seen.add(t)) {
+                t = j;
+                seen.add(j);
+            }
+            picked[count++] = t;
+        }
+        // Floyd's picks a uniform set but not a uniform order
+        shuffle(random, picked);
+        return picked;
+    }
+
+    /**
+     * Returns {@code k} items picked uniformly from everything {@code items}
+     * produces, reading it once without knowing its length in advance.
+     * Uses reservoir sampling with geometric skips (Li's Algorithm L), so
+     * most items are skipped without drawing a random number for them.
+     *
+     * @param items items to choose from
+     * @param k number of items to pick
+     * @return up to {@code k} items, fewer if {@code items} runs out first
+     * @throws IllegalArgumentException if {@code items} is null or {@code k} is negative
+     */
+    public static <T> List<T> reservoir(RandomGenerator random, Iterator<? extends T> items, int k) {
+        validateNotNull(items);
+        if (k < 0) {
+            throw new IllegalArgumentException("k must be nonnegative: " + k);
+        }
+        List<T> picked = new ArrayList<>(k);
+        while (picked.size() < k && items.hasNext()) {
+            picked.add(items.next());
+        }
+        if (k == 0) {
+            return picked;
+        }
+        double w = Math.exp(Math.log(uniformOpen(random)) / k);
+        while (true) {
+            long skip = (long) Math.floor(Math.log(uniformOpen(random)) / Math.log(1 - w));
+            for (long i = 0; i < skip; i++) {
+                if (!items.hasNext()) {
+                    return picked;
+                }
+                items.next();
+            }
+            if (!items.hasNext()) {
+                return picked;
+            }
+            picked.set(random.nextInt(k), items.next());
+            w *= Math.exp(Math.log(uniformOpen(random)) / k);
+        }
+    }
+
+    /**
+     * Same as {@link #reservoir(RandomGenerator, Iterator, int)} for a
+     * stream of ints, without boxing them.
+     *
+     * @param items ints to choose from
+     * @param k number of ints to pick
+     * @return up to {@code k} ints, fewer if {@code items} runs out first
+     * @throws IllegalArgumentException if {@code items} is null or {@code k} is negative
+     */
+    public static int[] reservoir(RandomGenerator random, PrimitiveIterator.OfInt items, int k) {
+        validateNotNull(items);
+        if (k < 0) {
+            throw new IllegalArgumentException("k must be nonnegative: " + k);
+        }
+        int[] picked = new int[k];
+        int count = 0;
+        while (count < k && items.hasNext()) {
+            picked[count++] = items.nextInt();
+        }
+        if (count < k) {
+            return Arrays.copyOf(picked, count);
+        }
+        if (k == 0) {
+            return picked;
+        }
+        double w = Math.exp(Math.log(uniformOpen(random)) / k);
+        while (true) {
+            long skip = (long) Math.floor(Math.log(uniformOpen(random)) / Math.log(1 - w));
+            for (long i = 0; i < skip; i++) {
+                if (!items.hasNext()) {
+                    return picked;
+                }
+                items.nextInt();
+            }
+            if (!items.hasNext()) {
+                return picked;
+            }
+            picked[random.nextInt(k)] = items.nextInt();
+            w *= Math.exp(Math.log(uniformOpen(random)) / k);
+        }
+    }
+
+    // uniform in (0, 1), so its log is finite
+    private static double uniformOpen(RandomGenerator random) {
+        double u;
+        do {
+            u = random.nextDouble();
+        } while (u == 0.0);
+        return u;
+    }
+
     // throw an IllegalArgumentException if x is null
     // (x can be of type Object[], double[], int[], ...)
     private static void validateNotNull(Object x) {
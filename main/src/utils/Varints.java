@@ -0,0 +1,82 @@
+package utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length integer encoding (LEB128) on top of ByteBuffer.
+ * Small values take one byte and a full long takes at most ten.
+ * Signed values are zigzag encoded first so small negatives stay small.
+ */
+public class Varints {
+    /** Largest number of bytes a long can take. */
+    public static final int MAX_LONG_BYTES = 10;
+
+    /**
+     * Writes an unsigned varint.
+     *
+     * @param buf buffer to write into
+     * @param value value, treated as unsigned
+     */
+    public static void putVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @param buf buffer to read from
+     * @return the decoded value
+     * @throws IllegalArgumentException if the varint is longer than ten bytes
+     */
+    public static long getVarLong(ByteBuffer buf) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    /**
+     * Writes a signed value using zigzag encoding.
+     *
+     * @param buf buffer to write into
+     * @param value signed value
+     */
+    public static void putSignedVarLong(ByteBuffer buf, long value) {
+        putVarLong(buf, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Reads a zigzag encoded signed value.
+     *
+     * @param buf buffer to read from
+     * @return the decoded value
+     */
+    public static long getSignedVarLong(ByteBuffer buf) {
+        long raw = getVarLong(buf);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    /**
+     * Reads an unsigned varint that must fit in a non-negative int.
+     *
+     * @param buf buffer to read from
+     * @return the decoded value
+     * @throws IllegalArgumentException if the value does not fit
+     */
+    public static int getVarInt(ByteBuffer buf) {
+        long value = getVarLong(buf);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("varint out of int range: " + value);
+        }
+        return (int) value;
+    }
+}